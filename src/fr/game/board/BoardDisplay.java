@@ -3,23 +3,67 @@ package fr.game.board;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 
 public class BoardDisplay extends JFrame {
     private static final int CELL_DIM = 35;
     private static final int MARGIN = 25;
+    // Keep searching while the human thinks
+    private static final boolean PONDER = true;
+    // The search overlay is refreshed at most this often while the engine thinks
+    private static final long MONITOR_INTERVAL_MS = 100;
+    // Scores beyond this are all drawn at full heat
+    private static final int HEAT_SPAN = 5000;
+    private static final int MAX_GHOST_STONES = 12;
+    // Shape of the subtree kept after every engine move for Export tree
+    private static final int EXPORT_WIDTH = 4;
+    private static final int EXPORT_DEPTH = 4;
+    private static final int STONE_SIZE = (int)(CELL_DIM * 0.9);
+    // How often the frame time counter shows the paints of the last period
+    private static final int FRAME_REPORT_MS = 1000;
+    private final RuleSet rules;
     private final Surface surface;
     private final JLabel infoText;
+    private final JCheckBox overlayToggle;
+    private final JButton exportButton;
+    private final JLabel frameText;
+    // Only touched on the event thread; the engine and the painting get copies of it
     private final GameBoard board;
-    private final BrainEngine brain;
+    private final Engine brain;
+    private volatile BoardSnapshot shown;
+    private long version;
+    private boolean thinking;
+    // Both only change on the event thread
+    private SearchView searchView;
+    private SearchTree lastTree;
+    // Paint times since the last report, on the event thread
+    private int frames;
+    private long frameNanos;
+    private long worstFrameNanos;
     
-    public BoardDisplay() {
+    public BoardDisplay(RuleSet rules, boolean monteCarlo) {
         setTitle("Strategic Board Game");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         
+        this.rules = rules;
         surface = new Surface();
         infoText = new JLabel("Game Started");
-        board = new GameBoard();
-        brain = new BrainEngine(4, 5);
+        overlayToggle = new JCheckBox("Search overlay");
+        exportButton = new JButton("Export tree");
+        exportButton.setEnabled(false);
+        frameText = new JLabel();
+        board = new GameBoard(rules);
+        shown = board.snapshot(version);
+        int threads = Runtime.getRuntime().availableProcessors();
+        brain = monteCarlo ? new MonteCarloEngine(450, threads) : new BrainEngine(12, 5, 450, threads);
+        // The book only holds Ninuki positions; under other rules it simply never matches
+        brain.setOpeningBook(OpeningBook.openDefault());
+        brain.setMonitor(new SearchMonitor(SwingUtilities::invokeLater, MONITOR_INTERVAL_MS, this::showSearch));
         
         setupLayout();
         setupGame();
@@ -28,7 +72,15 @@ public class BoardDisplay extends JFrame {
     private void setupLayout() {
         setLayout(new BorderLayout());
         add(surface, BorderLayout.CENTER);
-        add(infoText, BorderLayout.SOUTH);
+        
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+        controls.add(frameText);
+        controls.add(overlayToggle);
+        controls.add(exportButton);
+        JPanel status = new JPanel(new BorderLayout());
+        status.add(infoText, BorderLayout.CENTER);
+        status.add(controls, BorderLayout.EAST);
+        add(status, BorderLayout.SOUTH);
         
         pack();
         setLocationRelativeTo(null);
@@ -41,15 +93,61 @@ public class BoardDisplay extends JFrame {
                 handlePlayerMove(e.getX(), e.getY());
             }
         });
+        overlayToggle.addActionListener(e -> surface.repaint());
+        exportButton.addActionListener(e -> exportTree());
+        new Timer(FRAME_REPORT_MS, e -> reportFrames()).start();
+    }
+    
+    private void reportFrames() {
+        if (frames == 0) {
+            frameText.setText("");
+            return;
+        }
+        frameText.setText(String.format(Locale.ROOT, "%d frames, avg %.2f ms, worst %.2f ms",
+            frames, frameNanos / 1e6 / frames, worstFrameNanos / 1e6));
+        frames = 0;
+        frameNanos = 0;
+        worstFrameNanos = 0;
+    }
+    
+    // Called on the event thread with the newest view; older ones were dropped on the way
+    private void showSearch(SearchView view) {
+        SearchView previous = searchView;
+        searchView = view;
+        if (thinking && view.size() > 0) {
+            infoText.setText(String.format(Locale.ROOT, "Computer is thinking... depth %d, %d moves, best %s",
+                view.getSearchingDepth(), view.size(), scoreLabel(view.getBestScore(), TranspositionTable.EXACT)));
+        }
+        if (overlayToggle.isSelected()) {
+            surface.repaintOverlay(previous);
+            surface.repaintOverlay(view);
+        }
+    }
+    
+    private void exportTree() {
+        if (lastTree == null) {
+            return;
+        }
+        Path path = Paths.get("search-" + lastTree.getMoves().length + SearchTree.EXTENSION);
+        try {
+            lastTree.write(path);
+            infoText.setText("Search tree written to " + path);
+        } catch (IOException e) {
+            infoText.setText("Export failed: " + e.getMessage());
+        }
     }
     
     private void handlePlayerMove(int mouseX, int mouseY) {
         int x = (mouseX - MARGIN) / CELL_DIM;
         int y = (mouseY - MARGIN) / CELL_DIM;
         
-        if (x >= 0 && x < 19 && y >= 0 && y < 19) {
+        if (thinking || board.getState() != GameBoard.GameState.PLAYING) {
+            return;
+        }
+        
+        if (rules.contains(x, y)) {
             if (board.placePiece(x, y)) {
-                surface.repaint();
+                publish();
                 updateGameState();
                 
                 if (board.getState() == GameBoard.GameState.PLAYING) {
@@ -60,71 +158,282 @@ public class BoardDisplay extends JFrame {
     }
     
     private void makeComputerMove() {
-        new SwingWorker<Void, Void>() {
+        // The worker searches its own copy, so the live board never leaves this thread
+        GameBoard position = new GameBoard(board);
+        thinking = true;
+        infoText.setText("Computer is thinking...");
+        
+        new SwingWorker<SearchResult, Void>() {
+            private boolean ponderHit;
+            private SearchTree tree;
+            
+            @Override
+            protected SearchResult doInBackground() {
+                // A ponder hit answers at once; a miss still leaves the table warm
+                SearchResult pondered = brain.stopPondering(position);
+                ponderHit = pondered != null;
+                SearchResult result = ponderHit ? pondered : brain.search(position);
+                System.out.println(result.getStats().toLogLine());
+                // Taken before pondering starts writing over the table
+                tree = brain.exportTree(position, EXPORT_WIDTH, EXPORT_DEPTH);
+                return result;
+            }
+            
             @Override
-            protected Void doInBackground() {
-                infoText.setText("Computer is thinking...");
-                BrainEngine.Position move = brain.findBestMove(board);
+            protected void done() {
+                thinking = false;
+                lastTree = tree;
+                exportButton.setEnabled(tree != null);
+                SearchResult result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    infoText.setText("Computer move failed: " + e.getMessage());
+                    return;
+                }
                 
-                if (move != null) {
-                    board.placePiece(move.x, move.y);
-                    SwingUtilities.invokeLater(() -> {
-                        surface.repaint();
-                        updateGameState();
-                        infoText.setText(String.format("Computer move took %.2f seconds", 
-                            brain.getThinkingTime()));
-                    });
+                BrainEngine.Position move = result.getMove();
+                if (move == null || !board.placePiece(move.x, move.y)) {
+                    return;
                 }
-                return null;
+                publish();
+                if (PONDER) {
+                    brain.startPondering(board);
+                }
+                String source = ponderHit ? "Computer move (ponder hit): " : "Computer move: ";
+                infoText.setText(source + result.getStats().summary());
+                updateGameState();
             }
         }.execute();
     }
     
+    // Hands the painting a fresh immutable copy of the board and repaints the cells that
+    // changed: the stone placed, any captured, and the overlay, which a move may hide
+    private void publish() {
+        BoardSnapshot previous = shown;
+        shown = board.snapshot(++version);
+        for (int y = 0; y < rules.getSize(); y++) {
+            for (int x = 0; x < rules.getSize(); x++) {
+                if (previous.getStone(x, y) != shown.getStone(x, y)) {
+                    surface.repaintCell(x, y);
+                }
+            }
+        }
+        if (overlayToggle.isSelected()) {
+            surface.repaintOverlay(searchView);
+        }
+    }
+    
     private void updateGameState() {
         GameBoard.GameState state = board.getState();
-        if (state != GameBoard.GameState.PLAYING) {
+        if (state == GameBoard.GameState.DRAW) {
+            infoText.setText("Draw: the board is full");
+        } else if (state != GameBoard.GameState.PLAYING) {
             String winner = state == GameBoard.GameState.BLACK_WINS ? "Black" : "White";
             infoText.setText(winner + " wins!");
         }
     }
     
+    // The wood and the grid are drawn once into an image that is only redrawn on a resize,
+    // and the stones are copied from two sprites; a paint only covers the cells repainted
     private class Surface extends JPanel {
+        private BufferedImage background;
+        private BufferedImage blackStone;
+        private BufferedImage whiteStone;
+        
         public Surface() {
             setPreferredSize(new Dimension(
-                CELL_DIM * 19 + 2 * MARGIN,
-                CELL_DIM * 19 + 2 * MARGIN
+                CELL_DIM * rules.getSize() + 2 * MARGIN,
+                CELL_DIM * rules.getSize() + 2 * MARGIN
             ));
+            setOpaque(true);
+        }
+        
+        void repaintCell(int x, int y) {
+            repaint(new Rectangle(
+                MARGIN + x * CELL_DIM - CELL_DIM / 2,
+                MARGIN + y * CELL_DIM - CELL_DIM / 2,
+                CELL_DIM, CELL_DIM
+            ));
+        }
+        
+        // Every cell the overlay of this view draws on
+        void repaintOverlay(SearchView view) {
+            if (view == null) {
+                return;
+            }
+            for (int i = 0; i < view.size(); i++) {
+                repaintCell(view.getMove(i) % GameBoard.GRID_SIZE, view.getMove(i) / GameBoard.GRID_SIZE);
+            }
+            int length = Math.min(view.getPrincipalVariationLength(), MAX_GHOST_STONES);
+            for (int i = 0; i < length; i++) {
+                int cell = view.getPrincipalVariation(i);
+                repaintCell(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE);
+            }
         }
         
         @Override
         protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
+            long start = System.nanoTime();
             Graphics2D g2d = (Graphics2D) g;
+            if (background == null || background.getWidth() != getWidth() || background.getHeight() != getHeight()) {
+                background = renderBackground();
+            }
+            g2d.drawImage(background, 0, 0, null);
             g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
                 RenderingHints.VALUE_ANTIALIAS_ON);
             
-            drawGrid(g2d);
-            drawStones(g2d);
+            Rectangle clip = g2d.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            SearchView view = visibleSearch();
+            if (view != null) {
+                drawHeat(g2d, view);
+            }
+            drawStones(g2d, clip);
+            if (view != null) {
+                drawSearchLabels(g2d, view);
+                drawPrincipalVariation(g2d, view);
+            }
+            
+            long elapsed = System.nanoTime() - start;
+            frames++;
+            frameNanos += elapsed;
+            worstFrameNanos = Math.max(worstFrameNanos, elapsed);
+        }
+        
+        private BufferedImage renderBackground() {
+            BufferedImage image = getGraphicsConfiguration().createCompatibleImage(
+                Math.max(1, getWidth()), Math.max(1, getHeight()));
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
+                RenderingHints.VALUE_ANTIALIAS_ON);
+            drawGrid(g2d, image.getWidth(), image.getHeight());
+            g2d.dispose();
+            return image;
         }
         
-        private void drawGrid(Graphics2D g2d) {
+        // One pixel of room around the stone for the antialiased edge
+        private BufferedImage renderStone(GameBoard.Stone stone) {
+            BufferedImage image = getGraphicsConfiguration().createCompatibleImage(
+                STONE_SIZE + 2, STONE_SIZE + 2, Transparency.TRANSLUCENT);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
+                RenderingHints.VALUE_ANTIALIAS_ON);
+            if (stone == GameBoard.Stone.BLACK) {
+                g2d.setColor(Color.BLACK);
+                g2d.fillOval(1, 1, STONE_SIZE, STONE_SIZE);
+            } else {
+                g2d.setColor(Color.WHITE);
+                g2d.fillOval(1, 1, STONE_SIZE, STONE_SIZE);
+                g2d.setColor(Color.BLACK);
+                g2d.drawOval(1, 1, STONE_SIZE, STONE_SIZE);
+            }
+            g2d.dispose();
+            return image;
+        }
+        
+        // The overlay belongs to the engine's last position and is dropped once the human replies
+        private SearchView visibleSearch() {
+            SearchView view = searchView;
+            if (!overlayToggle.isSelected() || view == null || shown.getMoveCount() > view.getMoveCount() + 1) {
+                return null;
+            }
+            return view;
+        }
+        
+        // Root moves from cold to hot by score; bounds count as the score they are bounded by
+        private void drawHeat(Graphics2D g2d, SearchView view) {
+            int best = -HEAT_SPAN;
+            int worst = HEAT_SPAN;
+            for (int i = 0; i < view.size(); i++) {
+                int score = Math.max(-HEAT_SPAN, Math.min(HEAT_SPAN, view.getScore(i)));
+                best = Math.max(best, score);
+                worst = Math.min(worst, score);
+            }
+            for (int i = 0; i < view.size(); i++) {
+                int score = Math.max(-HEAT_SPAN, Math.min(HEAT_SPAN, view.getScore(i)));
+                float heat = best == worst ? 1f : (float) (score - worst) / (best - worst);
+                g2d.setColor(new Color(
+                    (int) (40 + 190 * heat), 60, (int) (220 - 190 * heat), 110));
+                int cell = view.getMove(i);
+                g2d.fillRect(
+                    MARGIN + cell % GameBoard.GRID_SIZE * CELL_DIM - CELL_DIM / 2,
+                    MARGIN + cell / GameBoard.GRID_SIZE * CELL_DIM - CELL_DIM / 2,
+                    CELL_DIM, CELL_DIM
+                );
+            }
+        }
+        
+        private void drawSearchLabels(Graphics2D g2d, SearchView view) {
+            BoardSnapshot snapshot = shown;
+            g2d.setFont(g2d.getFont().deriveFont(Font.PLAIN, 9f));
+            FontMetrics metrics = g2d.getFontMetrics();
+            g2d.setColor(Color.BLACK);
+            for (int i = 0; i < view.size(); i++) {
+                int cell = view.getMove(i);
+                int x = cell % GameBoard.GRID_SIZE;
+                int y = cell / GameBoard.GRID_SIZE;
+                if (snapshot.getStone(x, y) != GameBoard.Stone.EMPTY) {
+                    continue;
+                }
+                String score = scoreLabel(view.getScore(i), view.getBound(i));
+                String nodes = nodeLabel(view.getNodes(i));
+                int centreX = MARGIN + x * CELL_DIM;
+                int centreY = MARGIN + y * CELL_DIM;
+                g2d.drawString(score, centreX - metrics.stringWidth(score) / 2, centreY - 1);
+                g2d.drawString(nodes, centreX - metrics.stringWidth(nodes) / 2, centreY + metrics.getAscent());
+            }
+        }
+        
+        // The expected line as numbered see-through stones, starting with the side that searched
+        private void drawPrincipalVariation(Graphics2D g2d, SearchView view) {
+            BoardSnapshot snapshot = shown;
+            int stoneSize = STONE_SIZE;
+            g2d.setFont(g2d.getFont().deriveFont(Font.BOLD, 12f));
+            FontMetrics metrics = g2d.getFontMetrics();
+            int length = Math.min(view.getPrincipalVariationLength(), MAX_GHOST_STONES);
+            for (int i = 0; i < length; i++) {
+                int cell = view.getPrincipalVariation(i);
+                int x = cell % GameBoard.GRID_SIZE;
+                int y = cell / GameBoard.GRID_SIZE;
+                if (snapshot.getStone(x, y) != GameBoard.Stone.EMPTY) {
+                    continue;
+                }
+                boolean black = (view.getPlayer() + i) % 2 == 0;
+                int xPos = MARGIN + x * CELL_DIM - stoneSize/2;
+                int yPos = MARGIN + y * CELL_DIM - stoneSize/2;
+                g2d.setColor(black ? new Color(0, 0, 0, 120) : new Color(255, 255, 255, 150));
+                g2d.fillOval(xPos, yPos, stoneSize, stoneSize);
+                String number = Integer.toString(i + 1);
+                g2d.setColor(black ? Color.WHITE : Color.BLACK);
+                g2d.drawString(number,
+                    MARGIN + x * CELL_DIM - metrics.stringWidth(number) / 2,
+                    MARGIN + y * CELL_DIM + metrics.getAscent() / 2 - 1);
+            }
+        }
+        
+        private void drawGrid(Graphics2D g2d, int width, int height) {
             g2d.setColor(new Color(205, 170, 125));
-            g2d.fillRect(0, 0, getWidth(), getHeight());
+            g2d.fillRect(0, 0, width, height);
             
+            int size = rules.getSize();
+            int last = size - 1;
             g2d.setColor(Color.BLACK);
-            for (int i = 0; i < 19; i++) {
+            for (int i = 0; i < size; i++) {
                 g2d.drawLine(
                     MARGIN + i * CELL_DIM, MARGIN,
-                    MARGIN + i * CELL_DIM, MARGIN + 18 * CELL_DIM
+                    MARGIN + i * CELL_DIM, MARGIN + last * CELL_DIM
                 );
                 g2d.drawLine(
                     MARGIN, MARGIN + i * CELL_DIM,
-                    MARGIN + 18 * CELL_DIM, MARGIN + i * CELL_DIM
+                    MARGIN + last * CELL_DIM, MARGIN + i * CELL_DIM
                 );
             }
             
             // Draw star points
-            int[] starPoints = {3, 9, 15};
+            int[] starPoints = {3, size / 2, last - 3};
             for (int x : starPoints) {
                 for (int y : starPoints) {
                     g2d.fillOval(
@@ -136,10 +445,17 @@ public class BoardDisplay extends JFrame {
             }
         }
         
-        private void drawStones(Graphics2D g2d) {
-            for (int y = 0; y < 19; y++) {
-                for (int x = 0; x < 19; x++) {
-                    GameBoard.Stone stone = board.getStone(x, y);
+        // Only the cells the clip reaches
+        private void drawStones(Graphics2D g2d, Rectangle clip) {
+            BoardSnapshot snapshot = shown;
+            int last = rules.getSize() - 1;
+            int fromX = Math.max(0, cellAt(clip.x));
+            int toX = Math.min(last, cellAt(clip.x + clip.width - 1));
+            int fromY = Math.max(0, cellAt(clip.y));
+            int toY = Math.min(last, cellAt(clip.y + clip.height - 1));
+            for (int y = fromY; y <= toY; y++) {
+                for (int x = fromX; x <= toX; x++) {
+                    GameBoard.Stone stone = snapshot.getStone(x, y);
                     if (stone != GameBoard.Stone.EMPTY) {
                         drawStone(g2d, x, y, stone);
                     }
@@ -147,26 +463,51 @@ public class BoardDisplay extends JFrame {
             }
         }
         
+        // The row or column whose cell covers this pixel
+        private int cellAt(int pixel) {
+            return Math.floorDiv(pixel - MARGIN + CELL_DIM / 2, CELL_DIM);
+        }
+        
         private void drawStone(Graphics2D g2d, int x, int y, GameBoard.Stone stone) {
-            int stoneSize = (int)(CELL_DIM * 0.9);
-            int xPos = MARGIN + x * CELL_DIM - stoneSize/2;
-            int yPos = MARGIN + y * CELL_DIM - stoneSize/2;
-            
-            if (stone == GameBoard.Stone.BLACK) {
-                g2d.setColor(Color.BLACK);
-                g2d.fillOval(xPos, yPos, stoneSize, stoneSize);
-            } else {
-                g2d.setColor(Color.WHITE);
-                g2d.fillOval(xPos, yPos, stoneSize, stoneSize);
-                g2d.setColor(Color.BLACK);
-                g2d.drawOval(xPos, yPos, stoneSize, stoneSize);
+            if (blackStone == null) {
+                blackStone = renderStone(GameBoard.Stone.BLACK);
+                whiteStone = renderStone(GameBoard.Stone.WHITE);
             }
+            int xPos = MARGIN + x * CELL_DIM - STONE_SIZE/2 - 1;
+            int yPos = MARGIN + y * CELL_DIM - STONE_SIZE/2 - 1;
+            g2d.drawImage(stone == GameBoard.Stone.BLACK ? blackStone : whiteStone, xPos, yPos, null);
+        }
+    }
+    
+    // W or L and the plies to the end for a proven result; <= marks a score that is only a bound
+    private static String scoreLabel(int score, int bound) {
+        String prefix = bound == TranspositionTable.UPPER ? "<=" : bound == TranspositionTable.LOWER ? ">=" : "";
+        if (Math.abs(score) >= BrainEngine.MATE_BOUND) {
+            return prefix + (score > 0 ? "W" : "L") + (BrainEngine.WIN_SCORE - Math.abs(score));
+        }
+        if (Math.abs(score) < 1000) {
+            return prefix + String.format(Locale.ROOT, "%+d", score);
+        }
+        return prefix + String.format(Locale.ROOT, "%+.1fk", score / 1000.0);
+    }
+    
+    private static String nodeLabel(long nodes) {
+        if (nodes < 1000) {
+            return Long.toString(nodes);
+        }
+        if (nodes < 1_000_000) {
+            return nodes / 1000 + "k";
         }
+        return String.format(Locale.ROOT, "%.1fM", nodes / 1_000_000.0);
     }
     
+    // Optional arguments: the rules to play, e.g. standard or freestyle:19, then mcts to play
+    // against the Monte Carlo engine instead of the alpha-beta one
     public static void main(String[] args) {
+        RuleSet rules = args.length > 0 ? RuleSet.forName(args[0]) : RuleSet.NINUKI;
+        boolean monteCarlo = args.length > 1 && args[1].equals("mcts");
         SwingUtilities.invokeLater(() -> {
-            new BoardDisplay().setVisible(true);
+            new BoardDisplay(rules, monteCarlo).setVisible(true);
         });
     }
 }
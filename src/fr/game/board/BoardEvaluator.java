@@ -0,0 +1,15 @@
+package fr.game.board;
+
+public interface BoardEvaluator {
+    // Rebuilds the running totals from scratch for the given board
+    void reset(GameBoard board);
+    
+    // Called just before the board adds or removes a stone
+    void onAdd(GameBoard board, int cell, int player);
+    void onRemove(GameBoard board, int cell, int player);
+    
+    // Static score from the given player's point of view
+    int evaluate(GameBoard board, int player);
+    
+    BoardEvaluator copy();
+}
@@ -0,0 +1,58 @@
+package fr.game.board;
+
+// An immutable copy of what is on the board, safe to read from any thread.
+// Versions only grow, so a reader can tell an old snapshot from a new one.
+public class BoardSnapshot {
+    private final long version;
+    private final long[][] stones;
+    private final int[] captureCount;
+    private final int currentPlayer;
+    private final int moveCount;
+    private final int lastMove;
+    private final GameBoard.GameState state;
+    
+    BoardSnapshot(long version, long[][] stones, int[] captureCount, int currentPlayer,
+                  int moveCount, int lastMove, GameBoard.GameState state) {
+        this.version = version;
+        this.stones = stones;
+        this.captureCount = captureCount;
+        this.currentPlayer = currentPlayer;
+        this.moveCount = moveCount;
+        this.lastMove = lastMove;
+        this.state = state;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public GameBoard.Stone getStone(int x, int y) {
+        int cell = y * GameBoard.GRID_SIZE + x;
+        long bit = 1L << cell;
+        if ((stones[0][cell >>> 6] & bit) != 0) {
+            return GameBoard.Stone.BLACK;
+        }
+        return (stones[1][cell >>> 6] & bit) != 0 ? GameBoard.Stone.WHITE : GameBoard.Stone.EMPTY;
+    }
+    
+    public int getCaptureCount(int player) {
+        return captureCount[player];
+    }
+    
+    public int getCurrentPlayer() {
+        return currentPlayer;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    // The cell of the last move, or -1 on an empty board
+    public int getLastMove() {
+        return lastMove;
+    }
+    
+    public GameBoard.GameState getState() {
+        return state;
+    }
+}
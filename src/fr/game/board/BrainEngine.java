@@ -1,218 +1,926 @@
 package fr.game.board;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-public class BrainEngine {
+public class BrainEngine implements Engine {
+    private static final int DEFAULT_TABLE_MB = 32;
+    private static final long DEFAULT_TIME_BUDGET_MS = 450;
+    // The clock and the shared stop flag are only read once every STOP_CHECK_INTERVAL nodes
+    private static final int STOP_CHECK_INTERVAL = 1024;
+    // Node budgets for the threat solver, and the share of the move time it may use at most
+    private static final long VCF_NODES = 20_000;
+    private static final long VCT_NODES = 20_000;
+    private static final long DEFENCE_NODES = 2_000;
+    private static final int THREAT_TIME_SHARE = 4;
+    // Pondering has no deadline of its own; stopPondering ends it
+    private static final long PONDER_BUDGET_NANOS = Long.MAX_VALUE / 4;
+    
+    // A win found n plies from the root scores WIN_SCORE - n; anything past MATE_BOUND is a forced result
+    static final int WIN_SCORE = 1 << 29;
+    static final int MATE_BOUND = WIN_SCORE - 2 * MoveGenerator.MAX_PLY;
+    private static final int INFINITY = WIN_SCORE + 1;
+    // How much longer than the last iteration the next one is assumed to take
+    private static final int NEXT_ITERATION_GROWTH = 3;
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW = 150;
+    // Late move reductions apply from this depth, after this many moves, and deepen further on
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_MIN_MOVES = 3;
+    private static final int LMR_DEEP_MOVES = 5;
+    private static final int MAX_PV_LENGTH = 32;
+    private static final int CAPTURES = RuleTables.CAPTURE_FORWARD | RuleTables.CAPTURE_BACKWARD;
+    private static final int TACTICAL = RuleTables.FOUR | RuleTables.FIVE | CAPTURES;
+    // Past the horizon only forcing moves are searched, this many plies deep and this many per node
+    private static final int QUIESCENCE_PLIES = 6;
+    private static final int QUIESCENCE_MOVES = 6;
+    // Why a move is forcing, highest first; a move can be several at once
+    private static final int Q_BLOCK = 8;
+    private static final int Q_FOUR = 4;
+    private static final int Q_CAPTURE = 2;
+    private static final int Q_DEFENCE = 1;
+    
     private final int searchDepth;
     private final int branchingFactor;
-    private final Random randomGen;
+    private final long timeBudgetMillis;
+    private final TranspositionTable table;
+    private final SearchWorker[] workers;
+    private final ExecutorService helperPool;
+    private final ThreatSolver solver = new ThreatSolver(() -> this.stopped);
+    private OpeningBook book;
+    // Replaces the evaluator of the boards the workers search on; null keeps the board's own
+    private BoardEvaluator evaluator;
+    private FutureTask<SearchResult> ponderTask;
+    private GameBoard ponderPosition;
     private long startThinkTime;
+    private long deadline;
+    private volatile boolean stopped;
+    private volatile SearchMonitor monitor;
+    private SearchStats lastStats = new SearchStats();
     
     public BrainEngine(int searchDepth, int branchingFactor) {
+        this(searchDepth, branchingFactor, DEFAULT_TIME_BUDGET_MS);
+    }
+    
+    public BrainEngine(int searchDepth, int branchingFactor, long timeBudgetMillis) {
+        this(searchDepth, branchingFactor, timeBudgetMillis, 1);
+    }
+    
+    public BrainEngine(int searchDepth, int branchingFactor, long timeBudgetMillis, int threads) {
+        this(searchDepth, branchingFactor, timeBudgetMillis, threads, new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+    
+    public BrainEngine(int searchDepth, int branchingFactor, long timeBudgetMillis, int threads,
+                       TranspositionTable table) {
         this.searchDepth = searchDepth;
         this.branchingFactor = branchingFactor;
-        this.randomGen = new Random();
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.table = table;
+        
+        workers = new SearchWorker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new SearchWorker(i);
+        }
+        helperPool = workers.length > 1 ? Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+            Thread thread = new Thread(runnable, "search-helper");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
     }
     
+    @Override
     public Position findBestMove(GameBoard board) {
-        startThinkTime = System.nanoTime();
-        List<Position> possibleMoves = generateMoves(board);
-        if (possibleMoves.isEmpty()) {
-            return null;
+        return findBestMove(board, timeBudgetMillis);
+    }
+    
+    public Position findBestMove(GameBoard board, long timeBudgetMillis) {
+        return search(board, timeBudgetMillis).getMove();
+    }
+    
+    @Override
+    public SearchResult search(GameBoard board) {
+        return search(board, timeBudgetMillis);
+    }
+    
+    @Override
+    public SearchResult search(GameBoard board, long timeBudgetMillis) {
+        stopPondering(null);
+        stopped = false;
+        return run(board, timeBudgetMillis * 1_000_000L, monitor);
+    }
+    
+    // Keeps searching on the opponent's time until stopPondering. The expected reply from the
+    // table is pondered when there is one, otherwise the opponent's own position, which still
+    // leaves the table warm for whatever they play.
+    @Override
+    public synchronized void startPondering(GameBoard afterOwnMove) {
+        stopPondering(null);
+        if (afterOwnMove.getState() != GameBoard.GameState.PLAYING) {
+            return;
         }
         
-        Position bestMove = null;
-        int bestScore = Integer.MIN_VALUE;
-        int alpha = Integer.MIN_VALUE;
-        int beta = Integer.MAX_VALUE;
+        GameBoard position = new GameBoard(afterOwnMove);
+        long entry = table.probe(position.getHash());
+        int reply = entry != 0 ? TranspositionTable.move(entry) : TranspositionTable.NO_MOVE;
+        if (reply != TranspositionTable.NO_MOVE && position.isLegalMove(reply)) {
+            position.makeMove(reply);
+        }
+        if (position.getState() != GameBoard.GameState.PLAYING) {
+            return;
+        }
         
-        for (Position move : possibleMoves) {
-            GameBoard tempBoard = cloneBoard(board);
-            tempBoard.placePiece(move.x, move.y);
-            
-            int score = evaluatePosition(tempBoard, searchDepth - 1, alpha, beta, false);
-            if (score > bestScore) {
-                bestScore = score;
-                bestMove = move;
-            }
-            alpha = Math.max(alpha, bestScore);
+        // Cleared here rather than in run() so a stop that comes before the thread starts still counts
+        stopped = false;
+        ponderPosition = position;
+        ponderTask = new FutureTask<>(() -> run(position, PONDER_BUDGET_NANOS, null));
+        Thread thread = new Thread(ponderTask, "ponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // Stops pondering and waits for it to finish. Returns the pondered result when it was for
+    // this very position and searched at least as long as a normal move would, otherwise null.
+    @Override
+    public synchronized SearchResult stopPondering(GameBoard current) {
+        if (ponderTask == null) {
+            return null;
+        }
+        stopped = true;
+        SearchResult result;
+        try {
+            result = ponderTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            ponderTask = null;
         }
         
-        return bestMove;
+        boolean hit = current != null
+            && ponderPosition.getHash() == current.getHash()
+            && ponderPosition.getMoveCount() == current.getMoveCount();
+        ponderPosition = null;
+        if (!hit || result == null || result.getMove() == null) {
+            return null;
+        }
+        SearchStats stats = result.getStats();
+        boolean thorough = stats.getSeconds() * 1000 >= timeBudgetMillis || stats.getCompletedDepth() >= searchDepth;
+        return thorough ? result : null;
+    }
+    
+    public synchronized boolean isPondering() {
+        return ponderTask != null;
     }
     
-    private List<Position> generateMoves(GameBoard board) {
-        List<Position> moves = new ArrayList<>();
-        Set<Position> considered = new HashSet<>();
+    // Only the main worker reports progress, and only to a monitor given for this search
+    private SearchResult run(GameBoard board, long budgetNanos, SearchMonitor progress) {
+        startThinkTime = System.nanoTime();
+        deadline = startThinkTime + budgetNanos;
+        table.newSearch();
         
-        // Consider moves near existing pieces first
-        for (int y = 0; y < 19; y++) {
-            for (int x = 0; x < 19; x++) {
-                if (board.getStone(x, y) != GameBoard.Stone.EMPTY) {
-                    addAdjacentMoves(board, x, y, considered, moves);
-                }
+        SearchWorker main = workers[0];
+        main.prepare(board);
+        main.monitor = progress;
+        // Helpers only get a board when the search reaches them, but finish sums every
+        // worker's counters, so none may carry the last search's into an early return
+        for (int i = 1; i < workers.length; i++) {
+            workers[i].stats.reset();
+        }
+        if (book != null) {
+            int bookMove = book.lookup(board, null);
+            if (bookMove != TranspositionTable.NO_MOVE && board.isLegalMove(bookMove)) {
+                main.stats.bookMove = true;
+                return finish(new Position(bookMove % GameBoard.GRID_SIZE, bookMove / GameBoard.GRID_SIZE), main);
             }
         }
+        long rootEntry = table.probe(board.getHash());
+        int hashMove = rootEntry != 0 ? TranspositionTable.move(rootEntry) : TranspositionTable.NO_MOVE;
+        int[] rootMoves = main.generateRootMoves(hashMove);
+        if (rootMoves.length == 0) {
+            return finish(null, main);
+        }
+        
+        // Forced lines first: a proven win is played at once, and against a proven
+        // enemy win only the moves that refute it are left for the main search
+        long threatDeadline = startThinkTime + budgetNanos / THREAT_TIME_SHARE;
+        long solverStart = solver.getNodeCount();
+        GameBoard threatBoard = ThreatSolver.copyForSolving(board);
+        int win = solver.findWin(threatBoard, false, VCF_NODES, threatDeadline);
+        if (win == TranspositionTable.NO_MOVE) {
+            win = solver.findWin(threatBoard, true, VCT_NODES, threatDeadline);
+        }
+        if (win == TranspositionTable.NO_MOVE) {
+            rootMoves = keepDefences(threatBoard, rootMoves, threatDeadline);
+        }
+        main.stats.threatNodes = solver.getNodeCount() - solverStart;
+        if (win != TranspositionTable.NO_MOVE) {
+            return finish(new Position(win % GameBoard.GRID_SIZE, win / GameBoard.GRID_SIZE), main);
+        }
         
-        // If no pieces on board, start near center
-        if (moves.isEmpty()) {
-            int center = 19 / 2;
-            moves.add(new Position(center, center));
+        // Lazy SMP: helpers search the same root on their own board copy and
+        // only share results through the transposition table
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            SearchWorker helper = workers[i];
+            helper.prepare(board);
+            int[] helperMoves = rootMoves.clone();
+            helpers.add(helperPool.submit(() -> helper.iterate(helperMoves, 1 + (helper.id & 1))));
         }
         
-        // Limit branching factor
-        if (moves.size() > branchingFactor) {
-            Collections.shuffle(moves, randomGen);
-            return moves.subList(0, branchingFactor);
+        main.iterate(rootMoves, 1);
+        stopped = true;
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
         }
         
-        return moves;
+        // Prefer whichever thread finished the deepest iteration
+        SearchWorker best = main;
+        for (SearchWorker worker : workers) {
+            if (worker.bestMove != TranspositionTable.NO_MOVE && worker.completedDepth > best.completedDepth) {
+                best = worker;
+            }
+        }
+        if (best.bestMove == TranspositionTable.NO_MOVE) {
+            return finish(null, best);
+        }
+        return finish(new Position(best.bestMove % GameBoard.GRID_SIZE, best.bestMove / GameBoard.GRID_SIZE), best);
     }
     
-    private void addAdjacentMoves(GameBoard board, int x, int y, Set<Position> considered, List<Position> moves) {
-        for (int dy = -1; dy <= 1; dy++) {
-            for (int dx = -1; dx <= 1; dx++) {
-                int newX = x + dx;
-                int newY = y + dy;
-                Position pos = new Position(newX, newY);
-                
-                if (isValidPosition(newX, newY) && 
-                    board.getStone(newX, newY) == GameBoard.Stone.EMPTY &&
-                    !considered.contains(pos)) {
-                    considered.add(pos);
-                    moves.add(pos);
+    private int[] keepDefences(GameBoard board, int[] rootMoves, long threatDeadline) {
+        board.passTurn();
+        int threat = solver.findWin(board, false, VCF_NODES, threatDeadline);
+        board.passTurn();
+        if (threat == TranspositionTable.NO_MOVE) {
+            return rootMoves;
+        }
+        
+        // Root moves keep their order ahead of the remaining candidates
+        int[] candidates = new int[GameBoard.CELL_COUNT];
+        int count = board.collectCandidates(candidates);
+        int[] defences = new int[rootMoves.length + count];
+        boolean[] seen = new boolean[GameBoard.CELL_COUNT];
+        int kept = 0;
+        for (int i = 0; i < rootMoves.length + count; i++) {
+            int cell = i < rootMoves.length ? rootMoves[i] : candidates[i - rootMoves.length];
+            if (seen[cell] || !board.isLegalMove(cell)) {
+                continue;
+            }
+            seen[cell] = true;
+            // Out of time, the remaining root moves are kept unchecked
+            if (stopped || System.nanoTime() >= threatDeadline) {
+                if (i < rootMoves.length) {
+                    defences[kept++] = cell;
                 }
+                continue;
+            }
+            board.makeMove(cell);
+            boolean refutes = board.getState() != GameBoard.GameState.PLAYING
+                || solver.findWin(board, false, DEFENCE_NODES, threatDeadline) == TranspositionTable.NO_MOVE;
+            board.unmakeMove();
+            if (refutes) {
+                defences[kept++] = cell;
             }
         }
+        // Nothing holds: search everything and hope the opponent misses it
+        return kept > 0 ? Arrays.copyOf(defences, kept) : rootMoves;
     }
     
-    private int evaluatePosition(GameBoard board, int depth, int alpha, int beta, boolean maximizing) {
+    // Counters are summed over every worker; iteration timings come from the main thread
+    private SearchResult finish(Position move, SearchWorker best) {
+        SearchStats stats = new SearchStats();
+        for (SearchWorker worker : workers) {
+            stats.add(worker.stats);
+        }
+        stats.copyIterations(workers[0].stats);
+        stats.completedDepth = best.completedDepth;
+        stats.score = best.bestScore;
+        stats.elapsedNanos = System.nanoTime() - startThinkTime;
+        lastStats = stats;
+        int[] line = move == null ? new int[0] : best.principalVariation(move.y * GameBoard.GRID_SIZE + move.x);
+        SearchWorker main = workers[0];
+        if (main.monitor != null) {
+            main.publish(best.completedDepth, stats.score, line, true);
+            main.monitor = null;
+        }
+        return new SearchResult(move, stats, line);
+    }
+    
+    // Views of every search from now on go to this monitor; null stops them. Pondering never reports.
+    @Override
+    public void setMonitor(SearchMonitor monitor) {
+        this.monitor = monitor;
+    }
+    
+    // The table's view of a position after a search: from each node the width best children
+    // it holds entries for, depth plies deep
+    @Override
+    public SearchTree exportTree(GameBoard position, int width, int depth) {
+        GameBoard board = new GameBoard(position);
+        int[] moves = new int[board.getMoveCount()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = board.getMove(i);
+        }
+        SearchTree.Node root = exportNode(board, TranspositionTable.NO_MOVE, 0,
+            Math.min(width, SearchTree.MAX_WIDTH), depth, new int[GameBoard.CELL_COUNT]);
+        return new SearchTree(board.getRules().toString(), moves, root);
+    }
+    
+    private SearchTree.Node exportNode(GameBoard board, int move, int ply, int width, int depth, int[] candidates) {
+        long entry = table.probe(board.getHash());
+        int score = entry != 0 ? fromTable(TranspositionTable.score(entry), ply) : 0;
+        int stored = entry != 0 ? TranspositionTable.depth(entry) : 0;
+        int bound = entry != 0 ? TranspositionTable.bound(entry) : TranspositionTable.EXACT;
         if (depth == 0 || board.getState() != GameBoard.GameState.PLAYING) {
-            return calculateScore(board);
+            return new SearchTree.Node(move, score, stored, bound, new SearchTree.Node[0]);
         }
         
-        List<Position> moves = generateMoves(board);
-        if (moves.isEmpty()) {
-            return 0;
+        // Children the table knows, best for the side to move first
+        int count = board.collectCandidates(candidates);
+        long[] known = new long[count];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (!board.isLegalMove(candidates[i])) {
+                continue;
+            }
+            board.makeMove(candidates[i]);
+            long child = table.probe(board.getHash());
+            if (child != 0) {
+                int value = -fromTable(TranspositionTable.score(child), ply + 1);
+                known[found++] = (long) value << 32 | candidates[i];
+            }
+            board.unmakeMove();
         }
+        Arrays.sort(known, 0, found);
         
-        if (maximizing) {
-            int maxScore = Integer.MIN_VALUE;
-            for (Position move : moves) {
-                GameBoard tempBoard = cloneBoard(board);
-                if (tempBoard.placePiece(move.x, move.y)) {
-                    int score = evaluatePosition(tempBoard, depth - 1, alpha, beta, false);
-                    maxScore = Math.max(maxScore, score);
-                    alpha = Math.max(alpha, maxScore);
-                    if (beta <= alpha) {
-                        break;
-                    }
+        SearchTree.Node[] children = new SearchTree.Node[Math.min(width, found)];
+        for (int i = 0; i < children.length; i++) {
+            int cell = (int) known[found - 1 - i];
+            board.makeMove(cell);
+            children[i] = exportNode(board, cell, ply + 1, width, depth - 1, candidates);
+            board.unmakeMove();
+        }
+        return new SearchTree.Node(move, score, stored, bound, children);
+    }
+    
+    @Override
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    @Override
+    public void setEvaluator(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+    
+    // Forget everything learned in earlier searches
+    @Override
+    public void newGame() {
+        table.clear();
+        solver.clear();
+    }
+    
+    public int getThreadCount() {
+        return workers.length;
+    }
+    
+    @Override
+    public void close() {
+        stopPondering(null);
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+    
+    @Override
+    public SearchStats getLastStats() {
+        return lastStats;
+    }
+    
+    public long getNodeCount() {
+        return lastStats.getNodes();
+    }
+    
+    public int getCompletedDepth() {
+        return lastStats.getCompletedDepth();
+    }
+    
+    public double getThinkingTime() {
+        return lastStats.getSeconds();
+    }
+    
+    private class SearchWorker {
+        private final int id;
+        private final MoveGenerator generator;
+        private final SearchStats stats = new SearchStats();
+        private GameBoard board;
+        private boolean aborted;
+        private int completedDepth;
+        private int bestMove;
+        private int bestScore;
+        private int rootScore;
+        // Per root cell, for the monitor: the latest score and its bound, and nodes spent below it
+        private final int[] rootScores = new int[GameBoard.CELL_COUNT];
+        private final byte[] rootBounds = new byte[GameBoard.CELL_COUNT];
+        private final long[] rootNodes = new long[GameBoard.CELL_COUNT];
+        private int[] rootMoves = new int[0];
+        private SearchMonitor monitor;
+        // Candidates and forcing moves per ply for the quiescence search
+        private final int[][] quiescenceCells = new int[MoveGenerator.MAX_PLY + 1][GameBoard.CELL_COUNT];
+        private final int[][] quiescenceMoves = new int[MoveGenerator.MAX_PLY + 1][GameBoard.CELL_COUNT];
+        private final int[][] quiescenceKinds = new int[MoveGenerator.MAX_PLY + 1][GameBoard.CELL_COUNT];
+        
+        SearchWorker(int id) {
+            this.id = id;
+            this.generator = new MoveGenerator(branchingFactor, id == 0 ? null : new Random(id));
+        }
+        
+        // Search on a private copy so the live board is never touched
+        void prepare(GameBoard original) {
+            board = new GameBoard(original);
+            if (evaluator != null) {
+                board.setEvaluator(evaluator.copy());
+            }
+            stats.reset();
+            aborted = false;
+            completedDepth = 0;
+            bestMove = TranspositionTable.NO_MOVE;
+            bestScore = 0;
+            rootMoves = new int[0];
+            Arrays.fill(rootNodes, 0);
+            generator.newSearch();
+        }
+        
+        int[] generateRootMoves(int hashMove) {
+            int count = generator.generate(board, 0, hashMove);
+            return Arrays.copyOf(generator.moves(0), count);
+        }
+        
+        // Hands the monitor a copy of the root moves searched so far, in their current order
+        void publish(int searchingDepth, int score, int[] line, boolean finished) {
+            int size = 0;
+            for (int cell : rootMoves) {
+                if (rootNodes[cell] > 0) {
+                    size++;
                 }
             }
-            return maxScore;
-        } else {
-            int minScore = Integer.MAX_VALUE;
-            for (Position move : moves) {
-                GameBoard tempBoard = cloneBoard(board);
-                if (tempBoard.placePiece(move.x, move.y)) {
-                    int score = evaluatePosition(tempBoard, depth - 1, alpha, beta, true);
-                    minScore = Math.min(minScore, score);
-                    beta = Math.min(beta, minScore);
-                    if (beta <= alpha) {
-                        break;
-                    }
+            int[] moves = new int[size];
+            int[] scores = new int[size];
+            byte[] bounds = new byte[size];
+            long[] nodes = new long[size];
+            int index = 0;
+            for (int cell : rootMoves) {
+                if (rootNodes[cell] > 0) {
+                    moves[index] = cell;
+                    scores[index] = rootScores[cell];
+                    bounds[index] = rootBounds[cell];
+                    nodes[index++] = rootNodes[cell];
                 }
             }
-            return minScore;
+            long now = System.nanoTime();
+            monitor.publish(new SearchView(board.getMoveCount(), board.getCurrentPlayer(), completedDepth,
+                searchingDepth, score, now - startThinkTime, finished, moves, scores, bounds, nodes, line), now);
         }
-    }
-    
-    private int calculateScore(GameBoard board) {
-        int score = 0;
         
-        // Evaluate captures
-        score += board.getCaptureCount(board.getCurrentPlayer()) * 1000;
-        score -= board.getCaptureCount(1 - board.getCurrentPlayer()) * 1000;
-        
-        // Evaluate winning conditions
-        if (board.getState() == GameBoard.GameState.BLACK_WINS) {
-            return board.getCurrentPlayer() == 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        } else if (board.getState() == GameBoard.GameState.WHITE_WINS) {
-            return board.getCurrentPlayer() == 1 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        private void publishIfDue(int searchingDepth) {
+            if (monitor != null && monitor.isDue(System.nanoTime())) {
+                int[] line = bestMove != TranspositionTable.NO_MOVE ? principalVariation(bestMove) : new int[0];
+                publish(searchingDepth, bestScore, line, false);
+            }
         }
         
-        // Add positional scoring
-        for (int y = 0; y < 19; y++) {
-            for (int x = 0; x < 19; x++) {
-                GameBoard.Stone stone = board.getStone(x, y);
-                if (stone != GameBoard.Stone.EMPTY) {
-                    int stoneValue = evaluateStonePosition(board, x, y);
-                    if (stone == GameBoard.Stone.BLACK) {
-                        score += board.getCurrentPlayer() == 0 ? stoneValue : -stoneValue;
-                    } else {
-                        score += board.getCurrentPlayer() == 1 ? stoneValue : -stoneValue;
+        // Deepen until the budget runs out, keeping the last completed iteration
+        void iterate(int[] rootMoves, int firstDepth) {
+            this.rootMoves = rootMoves;
+            for (int depth = firstDepth; depth <= searchDepth; depth++) {
+                long iterationStart = System.nanoTime();
+                long nodesBefore = stats.nodes;
+                int iterationBest = aspirate(rootMoves, depth, bestScore);
+                if (aborted) {
+                    if (bestMove == TranspositionTable.NO_MOVE) {
+                        bestMove = iterationBest;
                     }
+                    return;
+                }
+                
+                // Every move loses against best play: keep the move that still looked
+                // playable a ply shallower, the opponent has to find the win too
+                if (rootScore <= -MATE_BOUND && bestMove != TranspositionTable.NO_MOVE) {
+                    return;
+                }
+                
+                long now = System.nanoTime();
+                bestMove = iterationBest;
+                bestScore = rootScore;
+                completedDepth = depth;
+                if (depth < stats.iterationNodes.length) {
+                    stats.iterationNodes[depth] = stats.nodes - nodesBefore;
+                    stats.iterationNanos[depth] = now - iterationStart;
+                }
+                if (bestMove == TranspositionTable.NO_MOVE) {
+                    return;
+                }
+                
+                // Search the principal variation of this iteration first in the next one
+                moveToFront(rootMoves, bestMove);
+                publishIfDue(depth + 1);
+                
+                // A forced win will not get any better with more depth
+                if (bestScore >= MATE_BOUND) {
+                    return;
+                }
+                
+                // The next iteration would not finish in what is left of the budget
+                if (id == 0 && now + (now - iterationStart) * NEXT_ITERATION_GROWTH > deadline) {
+                    return;
                 }
             }
         }
         
-        return score;
-    }
-    
-    private int evaluateStonePosition(GameBoard board, int x, int y) {
-        int score = 0;
-        GameBoard.Stone stone = board.getStone(x, y);
-        
-        for (GameBoard.Direction dir : GameBoard.Direction.values()) {
-            int sequence = countSequence(board, x, y, dir, stone);
-            score += Math.pow(10, sequence);
+        // Start with a narrow window around the last score and widen whichever side it fails on
+        private int aspirate(int[] rootMoves, int depth, int guess) {
+            if (depth < ASPIRATION_MIN_DEPTH || Math.abs(guess) >= MATE_BOUND) {
+                return searchRoot(rootMoves, depth, -INFINITY, INFINITY);
+            }
+            
+            int delta = ASPIRATION_WINDOW;
+            int alpha = guess - delta;
+            int beta = guess + delta;
+            while (true) {
+                int move = searchRoot(rootMoves, depth, alpha, beta);
+                if (aborted) {
+                    return move;
+                }
+                if (rootScore <= alpha) {
+                    alpha = Math.max(-INFINITY, rootScore - delta);
+                } else if (rootScore >= beta) {
+                    beta = Math.min(INFINITY, rootScore + delta);
+                } else {
+                    return move;
+                }
+                delta *= 4;
+                stats.reSearches++;
+            }
         }
         
-        // Bonus for center control
-        int distanceToCenter = Math.abs(x - 9) + Math.abs(y - 9);
-        score += (19 - distanceToCenter) * 2;
+        private int searchRoot(int[] rootMoves, int depth, int alpha, int beta) {
+            int player = board.getCurrentPlayer();
+            int alphaStart = alpha;
+            int best = TranspositionTable.NO_MOVE;
+            int bestValue = -INFINITY;
+            int searched = 0;
+            
+            for (int cell : rootMoves) {
+                if (!board.isLegalMove(cell)) {
+                    continue;
+                }
+                
+                long nodesBefore = stats.nodes;
+                board.makeMove(cell);
+                int score;
+                if (searched == 0) {
+                    score = -search(depth - 1, 1, -beta, -alpha);
+                } else {
+                    score = -search(depth - 1, 1, -alpha - 1, -alpha);
+                    if (score > alpha && score < beta && !aborted) {
+                        stats.reSearches++;
+                        score = -search(depth - 1, 1, -beta, -alpha);
+                    }
+                }
+                board.unmakeMove();
+                searched++;
+                rootNodes[cell] += stats.nodes - nodesBefore + 1;
+                if (aborted) {
+                    break;
+                }
+                rootScores[cell] = score;
+                rootBounds[cell] = (byte) (score <= alpha ? TranspositionTable.UPPER
+                    : score >= beta ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT);
+                if (score > bestValue) {
+                    bestValue = score;
+                    best = cell;
+                }
+                alpha = Math.max(alpha, score);
+                if (alpha >= beta) {
+                    break;
+                }
+                publishIfDue(depth);
+            }
+            
+            rootScore = bestValue;
+            if (best != TranspositionTable.NO_MOVE && !aborted) {
+                int bound = bestValue <= alphaStart ? TranspositionTable.UPPER
+                    : bestValue >= beta ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT;
+                table.store(board.getHash(), depth, bound, toTable(bestValue, 0), best, player);
+            }
+            return best;
+        }
         
-        return score;
-    }
-    
-    private int countSequence(GameBoard board, int x, int y, GameBoard.Direction dir, GameBoard.Stone stone) {
-        int count = 1;
-        int dx = dir.getDx();
-        int dy = dir.getDy();
+        // The chosen move followed by the replies the table still expects, as far as it knows them
+        int[] principalVariation(int move) {
+            int[] line = new int[MAX_PV_LENGTH];
+            int length = 0;
+            int cell = move;
+            while (cell != TranspositionTable.NO_MOVE && length < line.length
+                && board.getState() == GameBoard.GameState.PLAYING && board.isLegalMove(cell)) {
+                line[length++] = cell;
+                board.makeMove(cell);
+                long entry = table.probe(board.getHash());
+                cell = entry != 0 ? TranspositionTable.move(entry) : TranspositionTable.NO_MOVE;
+            }
+            for (int i = 0; i < length; i++) {
+                board.unmakeMove();
+            }
+            return Arrays.copyOf(line, length);
+        }
         
-        // Count forward
-        int nx = x + dx;
-        int ny = y + dy;
-        while (isValidPosition(nx, ny) && board.getStone(nx, ny) == stone) {
-            count++;
-            nx += dx;
-            ny += dy;
+        // Negamax principal variation search: scores are from the side to move's point of view
+        private int search(int depth, int ply, int alpha, int beta) {
+            if (depth <= 0) {
+                return quiesce(QUIESCENCE_PLIES, ply, alpha, beta);
+            }
+            if (++stats.nodes % STOP_CHECK_INTERVAL == 0) {
+                if (System.nanoTime() >= deadline) {
+                    stopped = true;
+                }
+                aborted = stopped;
+            }
+            if (aborted) {
+                return 0;
+            }
+            if (ply > stats.maxPly) {
+                stats.maxPly = ply;
+            }
+            
+            // The game only ends on the winner's own move, so the side to move has lost
+            if (board.getState() != GameBoard.GameState.PLAYING) {
+                stats.evaluations++;
+                return board.getState() == GameBoard.GameState.DRAW ? 0 : -(WIN_SCORE - ply);
+            }
+            if (ply >= MoveGenerator.MAX_PLY) {
+                stats.evaluations++;
+                return board.evaluate(board.getCurrentPlayer());
+            }
+            
+            // No line from here can beat a win already found closer to the root
+            alpha = Math.max(alpha, -WIN_SCORE + ply);
+            beta = Math.min(beta, WIN_SCORE - ply - 1);
+            if (alpha >= beta) {
+                return alpha;
+            }
+            boolean pvNode = beta - alpha > 1;
+            
+            int player = board.getCurrentPlayer();
+            long key = board.getHash();
+            long entry = table.probe(key);
+            int hashMove = TranspositionTable.NO_MOVE;
+            stats.tableProbes++;
+            if (entry != 0) {
+                stats.tableHits++;
+                hashMove = TranspositionTable.move(entry);
+                // Principal variation nodes always search, which keeps the line intact
+                if (!pvNode && TranspositionTable.depth(entry) >= depth && TranspositionTable.perspective(entry) == player) {
+                    int stored = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && stored >= beta)
+                        || (bound == TranspositionTable.UPPER && stored <= alpha)) {
+                        return stored;
+                    }
+                }
+            }
+            
+            int count = generator.generate(board, ply, hashMove);
+            int[] moves = generator.moves(ply);
+            
+            int alphaStart = alpha;
+            int bestCell = TranspositionTable.NO_MOVE;
+            int bestValue = -INFINITY;
+            int searched = 0;
+            for (int i = 0; i < count; i++) {
+                int cell = moves[i];
+                if (!board.isLegalMove(cell)) {
+                    continue;
+                }
+                
+                boolean quiet = searched > 0 && isQuiet(cell, player);
+                board.makeMove(cell);
+                int score;
+                if (searched == 0) {
+                    score = -search(depth - 1, ply + 1, -beta, -alpha);
+                } else {
+                    // Late quiet moves are tried shallower first and only re-searched if they surprise
+                    int reduction = 0;
+                    if (quiet && depth >= LMR_MIN_DEPTH && searched >= LMR_MIN_MOVES) {
+                        // Always leave the reply a ply to find a five of its own
+                        reduction = Math.min(searched >= LMR_DEEP_MOVES ? 2 : 1, depth - 2);
+                    }
+                    score = -search(depth - 1 - reduction, ply + 1, -alpha - 1, -alpha);
+                    if (score > alpha && reduction > 0 && !aborted) {
+                        stats.reSearches++;
+                        score = -search(depth - 1, ply + 1, -alpha - 1, -alpha);
+                    }
+                    if (score > alpha && score < beta && !aborted) {
+                        stats.reSearches++;
+                        score = -search(depth - 1, ply + 1, -beta, -alpha);
+                    }
+                }
+                board.unmakeMove();
+                searched++;
+                if (aborted) {
+                    return 0;
+                }
+                
+                if (score > bestValue) {
+                    bestValue = score;
+                    bestCell = cell;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+                if (alpha >= beta) {
+                    stats.recordCutoff(searched);
+                    generator.recordCutoff(ply, player, cell, depth);
+                    break;
+                }
+            }
+            
+            // Nowhere legal to play counts as a draw
+            if (bestCell == TranspositionTable.NO_MOVE) {
+                return 0;
+            }
+            int bound = bestValue <= alphaStart ? TranspositionTable.UPPER
+                : bestValue >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            table.store(key, depth, bound, toTable(bestValue, ply), bestCell, player);
+            return bestValue;
         }
         
-        // Count backward
-        nx = x - dx;
-        ny = y - dy;
-        while (isValidPosition(nx, ny) && board.getStone(nx, ny) == stone) {
-            count++;
-            nx -= dx;
-            ny -= dy;
+        // The static score is only trusted once nothing is hanging: a win on the board is taken,
+        // an opponent's win has to be answered, and otherwise the side to move may stand pat on
+        // the score or try its fours, captures and blocks of the opponent's capture points
+        private int quiesce(int plies, int ply, int alpha, int beta) {
+            if (++stats.nodes % STOP_CHECK_INTERVAL == 0) {
+                if (System.nanoTime() >= deadline) {
+                    stopped = true;
+                }
+                aborted = stopped;
+            }
+            if (aborted) {
+                return 0;
+            }
+            stats.quiescenceNodes++;
+            if (ply > stats.maxPly) {
+                stats.maxPly = ply;
+            }
+            if (board.getState() != GameBoard.GameState.PLAYING) {
+                stats.evaluations++;
+                return board.getState() == GameBoard.GameState.DRAW ? 0 : -(WIN_SCORE - ply);
+            }
+            if (ply >= MoveGenerator.MAX_PLY) {
+                stats.evaluations++;
+                return board.evaluate(board.getCurrentPlayer());
+            }
+            
+            int player = board.getCurrentPlayer();
+            int opponent = 1 - player;
+            int[] cells = quiescenceCells[ply];
+            int[] moves = quiescenceMoves[ply];
+            int[] kinds = quiescenceKinds[ply];
+            int count = board.collectCandidates(cells);
+            int found = 0;
+            boolean threatened = false;
+            for (int i = 0; i < count; i++) {
+                int cell = cells[i];
+                int own = 0;
+                int enemy = 0;
+                for (int dir = 0; dir < 4; dir++) {
+                    int key = board.windowKey(dir, cell);
+                    own |= board.ruleFlags(player, key);
+                    enemy |= board.ruleFlags(opponent, key);
+                }
+                if ((own & (RuleTables.FIVE | CAPTURES)) != 0 && board.isWinningMove(cell, player)) {
+                    stats.evaluations++;
+                    return WIN_SCORE - ply - 1;
+                }
+                int kind = 0;
+                if ((enemy & (RuleTables.FIVE | CAPTURES)) != 0 && board.isWinningMove(cell, opponent)) {
+                    kind |= Q_BLOCK;
+                    threatened = true;
+                }
+                kind |= (own & RuleTables.FOUR) != 0 ? Q_FOUR : 0;
+                kind |= (own & CAPTURES) != 0 ? Q_CAPTURE : 0;
+                kind |= (enemy & CAPTURES) != 0 ? Q_DEFENCE : 0;
+                if (kind != 0 && board.isLegalMove(cell)) {
+                    moves[found] = cell;
+                    kinds[found++] = kind;
+                }
+            }
+            
+            // Against a pending win only blocks and captures can help, and standing pat is no option;
+            // if none of them is there the opponent wins on the next move
+            int bestValue;
+            int allowed;
+            if (threatened) {
+                if (plies == 0) {
+                    stats.evaluations++;
+                    return board.evaluate(player);
+                }
+                bestValue = -(WIN_SCORE - ply - 2);
+                allowed = Q_BLOCK | Q_CAPTURE;
+            } else {
+                stats.evaluations++;
+                bestValue = board.evaluate(player);
+                if (bestValue >= beta || plies == 0) {
+                    return bestValue;
+                }
+                // Saving a pair is only tried on the first ply past the horizon, deeper it widens too much
+                allowed = plies == QUIESCENCE_PLIES ? Q_FOUR | Q_CAPTURE | Q_DEFENCE : Q_FOUR | Q_CAPTURE;
+            }
+            alpha = Math.max(alpha, bestValue);
+            
+            // Strongest kind first, and only as many as the budget allows
+            for (int searched = 0; searched < QUIESCENCE_MOVES; searched++) {
+                int best = -1;
+                for (int i = 0; i < found; i++) {
+                    if ((kinds[i] & allowed) != 0 && (best < 0 || kinds[i] > kinds[best])) {
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                int cell = moves[best];
+                kinds[best] = 0;
+                
+                board.makeMove(cell);
+                int score = -quiesce(plies - 1, ply + 1, -beta, -alpha);
+                board.unmakeMove();
+                if (aborted) {
+                    return 0;
+                }
+                if (score > bestValue) {
+                    bestValue = score;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+            return bestValue;
         }
         
-        return count;
+        // Neither makes a four or a capture nor stops the opponent's four
+        private boolean isQuiet(int cell, int player) {
+            for (int dir = 0; dir < 4; dir++) {
+                int key = board.windowKey(dir, cell);
+                if ((board.ruleFlags(player, key) & TACTICAL) != 0
+                    || (board.ruleFlags(1 - player, key) & (RuleTables.FOUR | RuleTables.FIVE)) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
     
-    private boolean isValidPosition(int x, int y) {
-        return x >= 0 && x < 19 && y >= 0 && y < 19;
+    // Win scores are stored relative to the node so they stay right wherever the position recurs
+    private static int toTable(int score, int ply) {
+        if (score >= MATE_BOUND) {
+            return score + ply;
+        }
+        return score <= -MATE_BOUND ? score - ply : score;
     }
     
-    private GameBoard cloneBoard(GameBoard original) {
-        // Implementation of board cloning would go here
-        // For now, we'll assume GameBoard has a copy constructor or clone method
-        return original;
+    private static int fromTable(int score, int ply) {
+        if (score >= MATE_BOUND) {
+            return score - ply;
+        }
+        return score <= -MATE_BOUND ? score + ply : score;
     }
     
-    public double getThinkingTime() {
-        return (System.nanoTime() - startThinkTime) / 1_000_000_000.0;
+    private static void moveToFront(int[] moves, int cell) {
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == cell) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = cell;
+                return;
+            }
+        }
     }
     
     public static class Position {
@@ -0,0 +1,40 @@
+package fr.game.board;
+
+// What the display and the match and analysis tools need from an engine, so they can play
+// with the alpha-beta BrainEngine or the MonteCarloEngine alike. Engines are not thread-safe:
+// one caller at a time, apart from the pondering they run themselves.
+public interface Engine extends AutoCloseable {
+    SearchResult search(GameBoard board);
+    
+    SearchResult search(GameBoard board, long timeBudgetMillis);
+    
+    default BrainEngine.Position findBestMove(GameBoard board) {
+        return search(board).getMove();
+    }
+    
+    // Forget everything learned in earlier games
+    void newGame();
+    
+    void setOpeningBook(OpeningBook book);
+    
+    // Every later search reports its progress here; null stops the reports
+    void setMonitor(SearchMonitor monitor);
+    
+    // Replaces the evaluator of the boards the engine searches on; null keeps the board's own
+    void setEvaluator(BoardEvaluator evaluator);
+    
+    // Keeps thinking on the opponent's time until stopPondering
+    void startPondering(GameBoard afterOwnMove);
+    
+    // A result worth playing at once for the current position, or null to search it as usual
+    SearchResult stopPondering(GameBoard current);
+    
+    // The best few lines from the last searched position, or null if it was another one
+    SearchTree exportTree(GameBoard position, int width, int depth);
+    
+    SearchStats getLastStats();
+    
+    // Stops pondering and the helper threads; the engine cannot search afterwards
+    @Override
+    void close();
+}
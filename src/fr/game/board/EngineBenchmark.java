@@ -0,0 +1,208 @@
+package fr.game.board;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Microbenchmarks for the engine hot paths over a fixed corpus of positions.
+// Run with: make bench [ARGS=<name filter>]
+public class EngineBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+    private static final int NEURAL_HIDDEN = 32;
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    // Results feed this so the JIT cannot drop the work being measured
+    private static long sink;
+    
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        Map<String, GameBoard> corpus = buildCorpus();
+        
+        System.out.printf("%-28s %-10s %14s %10s %14s %12s%n",
+            "benchmark", "position", "ops/sec", "+/- %", "bytes/op", "nodes/sec");
+        for (Map.Entry<String, GameBoard> position : corpus.entrySet()) {
+            GameBoard board = position.getValue();
+            String name = position.getKey();
+            
+            run(filter, "placePiece+unmake", name, () -> placeAll(board));
+            run(filter, "generateMoves", name, () -> generate(board));
+            run(filter, "calculateScore", name, () -> board.evaluate(board.getCurrentPlayer()));
+            run(filter, "makeMove+evaluate+unmake", name, () -> makeAndEvaluate(board));
+            // The neural evaluator's cost per leaf does not depend on its weights, random ones do
+            GameBoard neural = new GameBoard(board);
+            neural.setEvaluator(new NeuralEvaluator(NeuralNetwork.random(board.getRules(), NEURAL_HIDDEN, 1)));
+            run(filter, "calculateScore neural", name, () -> neural.evaluate(neural.getCurrentPlayer()));
+            run(filter, "makeMove+evaluate neural", name, () -> makeAndEvaluate(neural));
+            GameRecord record = GameRecord.of(board);
+            run(filter, "record replay", name, () -> record.replay(board.getRules(), record.getMoveCount()).getHash());
+            GameBoard viewer = record.replay(board.getRules(), record.getMoveCount());
+            run(filter, "record seek back+forward", name, () -> stepBack(record, viewer));
+            for (int depth : new int[] {2, 4, 6}) {
+                runSearch(filter, "findBestMove depth " + depth, name, board, depth);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+    
+    // The Ninuki positions compare against earlier runs; the same midgame under the other
+    // rules shows what each variant's tables cost next to them
+    static Map<String, GameBoard> buildCorpus() {
+        Map<String, GameBoard> corpus = new LinkedHashMap<>();
+        corpus.put("opening", randomPosition(RuleSet.NINUKI, 1, 4, 0));
+        corpus.put("midgame", randomPosition(RuleSet.NINUKI, 2, 30, 0));
+        corpus.put("captures", randomPosition(RuleSet.NINUKI, 3, 40, 8));
+        for (RuleSet rules : new RuleSet[] {RuleSet.NO_CAPTURES, RuleSet.STANDARD, RuleSet.FREESTYLE}) {
+            corpus.put(rules.getName(), randomPosition(rules, 2, 30, 0));
+        }
+        return corpus;
+    }
+    
+    // Replays seeded random moves near the centre; the first seed reaching the capture count wins
+    private static GameBoard randomPosition(RuleSet rules, long seed, int plies, int minCaptures) {
+        int centre = rules.getSize() / 2;
+        for (long attempt = seed; ; attempt += 1000) {
+            Random random = new Random(attempt);
+            GameBoard board = new GameBoard(rules);
+            int guard = 0;
+            while (board.getMoveCount() < plies && board.getState() == GameBoard.GameState.PLAYING && guard++ < 10_000) {
+                int x = centre - 3 + random.nextInt(7);
+                int y = centre - 3 + random.nextInt(7);
+                board.placePiece(x, y);
+            }
+            if (board.getState() == GameBoard.GameState.PLAYING
+                && board.getCaptureCount(0) + board.getCaptureCount(1) >= minCaptures) {
+                return board;
+            }
+        }
+    }
+    
+    private static int placeAll(GameBoard board) {
+        int placed = 0;
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            if (board.placePiece(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE)) {
+                board.unmakeMove();
+                placed++;
+            }
+        }
+        return placed;
+    }
+    
+    private static final MoveGenerator GENERATOR = new MoveGenerator(8, null);
+    
+    private static int generate(GameBoard board) {
+        int count = GENERATOR.generate(board, 0, TranspositionTable.NO_MOVE);
+        return GENERATOR.moves(0)[count - 1];
+    }
+    
+    private static final int[] CANDIDATES = new int[GameBoard.CELL_COUNT];
+    
+    private static int makeAndEvaluate(GameBoard board) {
+        int[] moves = CANDIDATES;
+        int count = board.collectCandidates(moves);
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            total += board.evaluate(0);
+            board.unmakeMove();
+        }
+        return total;
+    }
+    
+    // One ply back and forward again, as an undo and redo in a viewer would do
+    private static long stepBack(GameRecord record, GameBoard viewer) {
+        int end = record.getMoveCount();
+        record.seek(viewer, end - 1);
+        return record.seek(viewer, end).getHash();
+    }
+    
+    private interface Body {
+        long run();
+    }
+    
+    private static void run(String filter, String benchmark, String position, Body body) {
+        if (!(benchmark + " " + position).contains(filter)) {
+            return;
+        }
+        Result result = measure(body, () -> { });
+        System.out.printf("%-28s %-10s %14.0f %9.1f%% %14.1f %12s%n",
+            benchmark, position, result.opsPerSecond, result.errorPercent, result.bytesPerOp, "-");
+    }
+    
+    private static void runSearch(String filter, String benchmark, String position, GameBoard board, int depth) {
+        if (!(benchmark + " " + position).contains(filter)) {
+            return;
+        }
+        BrainEngine engine = new BrainEngine(depth, 8, Long.MAX_VALUE / 4_000_000L, 1);
+        long[] nodes = new long[1];
+        // Every call starts from an empty table so each one searches the same tree
+        Result result = measure(() -> {
+            engine.newGame();
+            BrainEngine.Position move = engine.findBestMove(board);
+            nodes[0] += engine.getNodeCount();
+            return move == null ? 0 : move.x;
+        }, () -> nodes[0] = 0);
+        double nodesPerSecond = nodes[0] / result.seconds;
+        System.out.printf("%-28s %-10s %14.1f %9.1f%% %14.1f %12.0f%n",
+            benchmark, position, result.opsPerSecond, result.errorPercent, result.bytesPerOp, nodesPerSecond);
+    }
+    
+    private static Result measure(Body body, Runnable beforeMeasurement) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(body, new Result());
+        }
+        beforeMeasurement.run();
+        
+        Result total = new Result();
+        double[] rates = new double[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            Result sample = new Result();
+            iteration(body, sample);
+            rates[i] = sample.ops / sample.seconds;
+            total.ops += sample.ops;
+            total.seconds += sample.seconds;
+            total.bytes += sample.bytes;
+        }
+        total.opsPerSecond = total.ops / total.seconds;
+        total.bytesPerOp = (double) total.bytes / total.ops;
+        
+        double variance = 0;
+        for (double rate : rates) {
+            variance += (rate - total.opsPerSecond) * (rate - total.opsPerSecond);
+        }
+        total.errorPercent = 100 * Math.sqrt(variance / rates.length) / total.opsPerSecond;
+        return total;
+    }
+    
+    private static void iteration(Body body, Result result) {
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long end = start + ITERATION_NANOS;
+        long ops = 0;
+        long now;
+        do {
+            sink += body.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        result.ops = ops;
+        result.seconds = (now - start) / 1e9;
+        result.bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+    }
+    
+    private static class Result {
+        long ops;
+        double seconds;
+        long bytes;
+        double opsPerSecond;
+        double bytesPerOp;
+        double errorPercent;
+    }
+}
@@ -0,0 +1,34 @@
+package fr.game.board;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class EnginePool {
+    private static final long WARMUP_MILLIS = 200;
+    
+    private final BlockingQueue<BrainEngine> idle;
+    
+    public EnginePool(int size, int searchDepth, int branchingFactor, int threadsPerEngine) {
+        idle = new ArrayBlockingQueue<>(size);
+        
+        // Run every engine once so the first real game does not pay for JIT compilation
+        GameBoard sample = new GameBoard();
+        sample.placePiece(9, 9);
+        sample.placePiece(10, 10);
+        OpeningBook book = OpeningBook.openDefault();
+        for (int i = 0; i < size; i++) {
+            BrainEngine engine = new BrainEngine(searchDepth, branchingFactor, WARMUP_MILLIS, threadsPerEngine);
+            engine.findBestMove(sample);
+            engine.setOpeningBook(book);
+            idle.add(engine);
+        }
+    }
+    
+    public BrainEngine acquire() throws InterruptedException {
+        return idle.take();
+    }
+    
+    public void release(BrainEngine engine) {
+        idle.add(engine);
+    }
+}
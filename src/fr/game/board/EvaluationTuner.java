@@ -0,0 +1,366 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Fits the pattern evaluator's weights to recorded games, Texel style: the score of every quiet
+// position goes through a sigmoid and the squared error against the game's result is minimised.
+// The score is a sum of weight times count, so the counts are taken once into a flat matrix and
+// every pass is a multiply-add over it, split across the cores with fork-join. Weights move by a
+// factor rather than a step, which keeps their signs and lets a 10 and a 20000 share a gradient.
+// One game in ten is kept aside to check the fit holds on games it did not see.
+// Run with: make tune ARGS="--in games.gmr [--out eval.weights --iterations 200 --threads n --rules ninuki]"
+public class EvaluationTuner {
+    // The first moves come from random openings and say little about either side
+    private static final int MIN_PLY = 6;
+    private static final int VALIDATION_EVERY = 10;
+    private static final int F = PatternEvaluator.WEIGHT_COUNT;
+    // Rows and games one fork-join task handles before it stops splitting
+    private static final int ROWS_PER_TASK = 16_384;
+    private static final int GAMES_PER_TASK = 64;
+    // A weight ends up within this factor of where it started
+    private static final double MAX_FACTOR = 20;
+    private static final double MIN_IMPROVEMENT = 1e-9;
+    // Nothing to tune in an empty window, and a five ends the game before it is ever scored
+    private static final boolean[] FIXED = new boolean[F];
+    // In PatternEvaluator's weight order
+    private static final String[] NAMES = {
+        "none", "two", "open_two", "three", "open_three", "four", "open_four", "five",
+        "exposed_pair", "capture", "centre"
+    };
+    
+    static {
+        FIXED[PatternEvaluator.NONE] = true;
+        FIXED[PatternEvaluator.FIVE] = true;
+    }
+    
+    private final ForkJoinPool pool;
+    private final int[] start;
+    // Maps scores to win chances: sigmoid(score / scale)
+    private double scale = 1000;
+    // Each weight is start * exp(factor)
+    private final double[] factors = new double[F];
+    
+    public EvaluationTuner(int[] start, int threads) {
+        this.start = start.clone();
+        this.pool = new ForkJoinPool(threads);
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Path in = null;
+        Path out = EvaluationWeights.DEFAULT_PATH;
+        RuleSet rules = RuleSet.NINUKI;
+        int iterations = 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--in":
+                    in = Paths.get(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--rules":
+                    rules = RuleSet.forName(args[i + 1]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (in == null) {
+            System.err.println("Usage: EvaluationTuner --in games" + GameRecord.EXTENSION + " [--out file --iterations n --threads n]");
+            return;
+        }
+        
+        List<GameRecord> trainingGames = new ArrayList<>();
+        List<GameRecord> validationGames = new ArrayList<>();
+        try (GameRecordReader reader = GameRecordReader.open(in)) {
+            int games = 0;
+            for (GameRecord record = reader.read(); record != null; record = reader.read()) {
+                // Unfinished games have no result to learn from
+                if (record.getResult() != GameBoard.GameState.PLAYING) {
+                    (games++ % VALIDATION_EVERY == VALIDATION_EVERY - 1 ? validationGames : trainingGames).add(record);
+                }
+            }
+        }
+        
+        EvaluationTuner tuner = new EvaluationTuner(PatternEvaluator.DEFAULT_WEIGHTS, threads);
+        long loadStart = System.nanoTime();
+        Positions training = tuner.extract(trainingGames, rules);
+        Positions validation = tuner.extract(validationGames, rules);
+        if (training.count == 0 || validation.count == 0) {
+            System.err.println("Not enough finished games in " + in);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%d training and %d validation positions from %d games in %.1f s%n",
+            training.count, validation.count, trainingGames.size() + validationGames.size(),
+            (System.nanoTime() - loadStart) / 1e9);
+        
+        tuner.fitScale(training);
+        double[] before = tuner.weights();
+        System.out.printf(Locale.ROOT, "start: scale %.0f  loss %.6f  validation %.6f%n",
+            tuner.scale, tuner.loss(training, before), tuner.loss(validation, before));
+        long tuneStart = System.nanoTime();
+        tuner.tune(training, iterations);
+        int[] tuned = tuner.rounded();
+        double[] after = new double[F];
+        for (int k = 0; k < F; k++) {
+            after[k] = tuned[k];
+        }
+        System.out.printf(Locale.ROOT, "tuned in %.1f s: loss %.6f  validation %.6f%n",
+            (System.nanoTime() - tuneStart) / 1e9, tuner.loss(training, after), tuner.loss(validation, after));
+        for (int k = 0; k < F; k++) {
+            System.out.printf(Locale.ROOT, "  %-12s %8d -> %d%n", NAMES[k], tuner.start[k], tuned[k]);
+        }
+        EvaluationWeights.write(out, tuned);
+        System.out.println("Wrote " + out);
+        tuner.pool.shutdown();
+    }
+    
+    // Row i is features[i * F .. i * F + F), counted for the side to move, whose result is results[i]
+    static class Positions {
+        final short[] features;
+        final float[] results;
+        final int count;
+        
+        Positions(short[] features, float[] results, int count) {
+            this.features = features;
+            this.results = results;
+            this.count = count;
+        }
+        
+        static Positions concat(Positions first, Positions second) {
+            int count = first.count + second.count;
+            short[] features = Arrays.copyOf(first.features, count * F);
+            System.arraycopy(second.features, 0, features, first.count * F, second.count * F);
+            float[] results = Arrays.copyOf(first.results, count);
+            System.arraycopy(second.results, 0, results, first.count, second.count);
+            return new Positions(features, results, count);
+        }
+    }
+    
+    Positions extract(List<GameRecord> games, RuleSet rules) {
+        return pool.invoke(new ExtractTask(games, rules, 0, games.size()));
+    }
+    
+    @SuppressWarnings("serial")
+    private static class ExtractTask extends RecursiveTask<Positions> {
+        private final List<GameRecord> games;
+        private final RuleSet rules;
+        private final int from;
+        private final int to;
+        
+        ExtractTask(List<GameRecord> games, RuleSet rules, int from, int to) {
+            this.games = games;
+            this.rules = rules;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected Positions compute() {
+            if (to - from > GAMES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ExtractTask right = new ExtractTask(games, rules, middle, to);
+                right.fork();
+                Positions left = new ExtractTask(games, rules, from, middle).compute();
+                return Positions.concat(left, right.join());
+            }
+            int capacity = 0;
+            for (int i = from; i < to; i++) {
+                capacity += games.get(i).getMoveCount();
+            }
+            short[] features = new short[capacity * F];
+            float[] results = new float[capacity];
+            int[] counts = new int[F];
+            int[] candidates = new int[GameBoard.CELL_COUNT];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                GameRecord record = games.get(i);
+                GameBoard.GameState result = record.getResult();
+                GameBoard board = new GameBoard(rules);
+                for (int ply = 0; ply < record.getMoveCount(); ply++) {
+                    if (ply >= MIN_PLY && isQuiet(board, candidates)) {
+                        int player = board.getCurrentPlayer();
+                        PatternEvaluator.countFeatures(board, player, counts);
+                        for (int k = 0; k < F; k++) {
+                            features[count * F + k] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, counts[k]));
+                        }
+                        results[count++] = result == GameBoard.GameState.DRAW ? 0.5f
+                            : (result == GameBoard.GameState.BLACK_WINS) == (player == 0) ? 1f : 0f;
+                    }
+                    board.makeMove(record.getMove(ply));
+                }
+            }
+            return new Positions(Arrays.copyOf(features, count * F), Arrays.copyOf(results, count), count);
+        }
+    }
+    
+    // A position where either side wins on the next move is decided by search, not by the weights
+    static boolean isQuiet(GameBoard board, int[] candidates) {
+        int player = board.getCurrentPlayer();
+        int count = board.collectCandidates(candidates);
+        for (int i = 0; i < count; i++) {
+            if (board.isWinningMove(candidates[i], player) || board.isWinningMove(candidates[i], 1 - player)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Mean squared error, followed by its gradient per weight when asked for
+    @SuppressWarnings("serial")
+    private static class LossTask extends RecursiveTask<double[]> {
+        private final Positions positions;
+        private final double[] weights;
+        private final double scale;
+        private final boolean gradient;
+        private final int from;
+        private final int to;
+        
+        LossTask(Positions positions, double[] weights, double scale, boolean gradient, int from, int to) {
+            this.positions = positions;
+            this.weights = weights;
+            this.scale = scale;
+            this.gradient = gradient;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected double[] compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                LossTask right = new LossTask(positions, weights, scale, gradient, middle, to);
+                right.fork();
+                double[] sums = new LossTask(positions, weights, scale, gradient, from, middle).compute();
+                double[] other = right.join();
+                for (int k = 0; k < sums.length; k++) {
+                    sums[k] += other[k];
+                }
+                return sums;
+            }
+            short[] features = positions.features;
+            float[] results = positions.results;
+            double[] sums = new double[gradient ? F + 1 : 1];
+            double inverseScale = 1 / scale;
+            for (int i = from; i < to; i++) {
+                int row = i * F;
+                double score = 0;
+                for (int k = 0; k < F; k++) {
+                    score += weights[k] * features[row + k];
+                }
+                double predicted = 1 / (1 + Math.exp(-score * inverseScale));
+                double error = predicted - results[i];
+                sums[0] += error * error;
+                if (gradient) {
+                    double delta = 2 * error * predicted * (1 - predicted) * inverseScale;
+                    for (int k = 0; k < F; k++) {
+                        sums[1 + k] += delta * features[row + k];
+                    }
+                }
+            }
+            return sums;
+        }
+    }
+    
+    double loss(Positions positions, double[] weights) {
+        return pool.invoke(new LossTask(positions, weights, scale, false, 0, positions.count))[0] / positions.count;
+    }
+    
+    double[] weights() {
+        double[] weights = new double[F];
+        for (int k = 0; k < F; k++) {
+            weights[k] = start[k] * Math.exp(factors[k]);
+        }
+        return weights;
+    }
+    
+    int[] rounded() {
+        double[] weights = weights();
+        int[] rounded = new int[F];
+        for (int k = 0; k < F; k++) {
+            rounded[k] = (int) Math.round(weights[k]);
+        }
+        return rounded;
+    }
+    
+    // The sigmoid scale that lets the starting weights predict the results best; it stays put
+    // while the weights move, so they keep the engine's units
+    void fitScale(Positions positions) {
+        double[] weights = weights();
+        double best = Double.MAX_VALUE;
+        double bestScale = scale;
+        for (double candidate = 100; candidate <= 20000; candidate *= 1.05) {
+            scale = candidate;
+            double loss = loss(positions, weights);
+            if (loss < best) {
+                best = loss;
+                bestScale = candidate;
+            }
+        }
+        scale = bestScale;
+    }
+    
+    // Gradient descent on the factors, each step as long as it keeps paying off
+    void tune(Positions positions, int iterations) {
+        double step = 1;
+        double[] direction = new double[F];
+        double[] trial = new double[F];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            double[] weights = weights();
+            double[] sums = pool.invoke(new LossTask(positions, weights, scale, true, 0, positions.count));
+            double loss = sums[0] / positions.count;
+            double norm = 0;
+            for (int k = 0; k < F; k++) {
+                // The weight is start * exp(factor), so the factor's slope is the weight's slope times the weight
+                direction[k] = FIXED[k] || start[k] == 0 ? 0 : -sums[1 + k] / positions.count * weights[k];
+                norm += direction[k] * direction[k];
+            }
+            if (norm == 0) {
+                break;
+            }
+            norm = Math.sqrt(norm);
+            
+            // Backtrack from twice the last step that worked
+            step = Math.min(1, step * 2);
+            double trialLoss = Double.MAX_VALUE;
+            while (step > 1e-6) {
+                for (int k = 0; k < F; k++) {
+                    double factor = factors[k] + step * direction[k] / norm;
+                    trial[k] = Math.max(-Math.log(MAX_FACTOR), Math.min(Math.log(MAX_FACTOR), factor));
+                    weights[k] = start[k] * Math.exp(trial[k]);
+                }
+                trialLoss = loss(positions, weights);
+                if (trialLoss < loss) {
+                    break;
+                }
+                step /= 2;
+            }
+            if (trialLoss >= loss) {
+                break;
+            }
+            System.arraycopy(trial, 0, factors, 0, F);
+            if ((iteration + 1) % 10 == 0) {
+                System.out.printf(Locale.ROOT, "iteration %d  loss %.6f%n", iteration + 1, trialLoss);
+            }
+            if (loss - trialLoss < MIN_IMPROVEMENT) {
+                break;
+            }
+        }
+    }
+}
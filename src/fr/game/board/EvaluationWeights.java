@@ -0,0 +1,59 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// The pattern evaluator's weights as EvaluationTuner writes them: a header and then one
+// big-endian int per weight, in PatternEvaluator's index order.
+// Tune them with: make tune ARGS="--in games.gmr"
+public class EvaluationWeights {
+    public static final Path DEFAULT_PATH = Paths.get("eval.weights");
+    private static final int MAGIC = 0x474D5754;
+    private static final int VERSION = 1;
+    
+    public static void write(Path path, int[] weights) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(12 + 4 * weights.length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(weights.length);
+        for (int weight : weights) {
+            out.putInt(weight);
+        }
+        Files.write(path, out.array());
+    }
+    
+    public static int[] read(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("not a weights file");
+            }
+            int count = in.getInt();
+            if (count != PatternEvaluator.WEIGHT_COUNT) {
+                throw new IOException("expected " + PatternEvaluator.WEIGHT_COUNT + " weights, found " + count);
+            }
+            int[] weights = new int[count];
+            for (int i = 0; i < count; i++) {
+                weights[i] = in.getInt();
+            }
+            return weights;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated weights file");
+        }
+    }
+    
+    // The tuned weights next to the game if there are any; the built-in ones are fine too
+    public static int[] openDefault() {
+        if (!Files.isRegularFile(DEFAULT_PATH)) {
+            return null;
+        }
+        try {
+            return read(DEFAULT_PATH);
+        } catch (IOException e) {
+            System.err.println("Ignoring weights " + DEFAULT_PATH + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package fr.game.board;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// Scores every position of a batch of recorded games on a pool of engines. Games are read
+// lazily and results come back through bounded queues as soon as each search is done, so a
+// slow consumer holds the workers back and memory stays flat however long the input is.
+// Run with: make analyze ARGS="--in games.txt|games.gmr [--out analysis.jsonl --engine 12:5:200 --threads 4 --rules ninuki]"
+public class GameAnalyzer {
+    // Positions queued on either side of the workers, per worker
+    private static final int QUEUE_PER_WORKER = 4;
+    private static final int PROGRESS_INTERVAL = 100;
+    
+    // Marks the end of the input for one worker, and the end of one worker's results
+    private static final Task END_OF_GAMES = new Task(-1, -1, TranspositionTable.NO_MOVE, null);
+    private static final PositionAnalysis END_OF_RESULTS = new PositionAnalysis(-1, -1, -1, TranspositionTable.NO_MOVE, null);
+    
+    private final RuleSet rules;
+    private final Tournament.EngineConfig config;
+    private final int workers;
+    
+    public GameAnalyzer(RuleSet rules, Tournament.EngineConfig config, int workers) {
+        this.rules = rules;
+        this.config = config;
+        this.workers = Math.max(1, workers);
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path in = null;
+        Path out = Paths.get("analysis.jsonl");
+        Tournament.EngineConfig config = Tournament.EngineConfig.parse("12:5:200");
+        int threads = Runtime.getRuntime().availableProcessors();
+        RuleSet rules = RuleSet.NINUKI;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--in":
+                    in = Paths.get(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--engine":
+                    config = Tournament.EngineConfig.parse(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rules":
+                    rules = RuleSet.forName(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (in == null) {
+            System.err.println("Usage: GameAnalyzer --in games.txt [--out analysis.jsonl] [--engine depth:beam:ms|mcts:ms] [--threads n] [--rules name[:size]]");
+            return;
+        }
+        
+        GameAnalyzer analyzer = new GameAnalyzer(rules, config, threads);
+        long start = System.nanoTime();
+        long[] written = new long[1];
+        try (Stream<int[]> games = readGames(in);
+             BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            analyzer.analyze(games, analysis -> {
+                try {
+                    writer.write(analysis.toJson());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (++written[0] % PROGRESS_INTERVAL == 0) {
+                    System.out.printf("%d positions  %.1fs%n", written[0], (System.nanoTime() - start) / 1e9);
+                }
+            });
+        }
+        System.out.printf("Analysed %d positions in %.1fs, results in %s%n",
+            written[0], (System.nanoTime() - start) / 1e9, out);
+    }
+    
+    // A record file, or text with one game per line; closing the stream closes the file
+    static Stream<int[]> readGames(Path in) throws IOException {
+        if (in.toString().endsWith(GameRecord.EXTENSION)) {
+            GameRecordReader reader = GameRecordReader.open(in);
+            return reader.stream().map(GameRecord::getMoves).onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return Files.lines(in, StandardCharsets.UTF_8)
+            .map(String::trim)
+            .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+            .map(GameAnalyzer::parseGame);
+    }
+    
+    // One game per line as space-separated x,y moves in the order they were played
+    public static int[] parseGame(String line) {
+        String[] fields = line.trim().split("\\s+");
+        int[] moves = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            String[] coordinates = fields[i].split(",");
+            if (coordinates.length != 2) {
+                throw new IllegalArgumentException("bad move " + fields[i]);
+            }
+            int x = Integer.parseInt(coordinates[0].trim());
+            int y = Integer.parseInt(coordinates[1].trim());
+            if (x < 0 || x >= GameBoard.GRID_SIZE || y < 0 || y >= GameBoard.GRID_SIZE) {
+                throw new IllegalArgumentException("move off the board " + fields[i]);
+            }
+            moves[i] = y * GameBoard.GRID_SIZE + x;
+        }
+        return moves;
+    }
+    
+    // Replays every game and analyses each position where the game is still on, handing the
+    // results to the sink on the calling thread in the order they finish. A game stops at its
+    // first illegal move. Returns the number of positions analysed.
+    public long analyze(Stream<int[]> games, PositionSink sink) throws InterruptedException {
+        BlockingQueue<Task> tasks = new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER);
+        BlockingQueue<PositionAnalysis> results = new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers + 1);
+        try {
+            pool.execute(() -> feed(games.iterator(), tasks, failure));
+            for (int i = 0; i < workers; i++) {
+                pool.execute(() -> work(tasks, results, failure));
+            }
+            
+            long analysed = 0;
+            int finished = 0;
+            while (finished < workers) {
+                PositionAnalysis analysis = results.take();
+                if (analysis == END_OF_RESULTS) {
+                    finished++;
+                    continue;
+                }
+                if (failure.get() == null) {
+                    sink.accept(analysis);
+                    analysed++;
+                }
+            }
+            if (failure.get() != null) {
+                throw new IllegalStateException(failure.get());
+            }
+            return analysed;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private void feed(Iterator<int[]> games, BlockingQueue<Task> tasks, AtomicReference<Throwable> failure) {
+        try {
+            int game = 0;
+            while (games.hasNext() && failure.get() == null) {
+                int[] moves = games.next();
+                GameBoard board = new GameBoard(rules);
+                for (int ply = 0; ply <= moves.length && board.getState() == GameBoard.GameState.PLAYING; ply++) {
+                    int played = ply < moves.length ? moves[ply] : TranspositionTable.NO_MOVE;
+                    // The copy is the only board a worker sees, so it can search on it freely
+                    tasks.put(new Task(game, ply, played, new GameBoard(board)));
+                    if (played == TranspositionTable.NO_MOVE || !board.isLegalMove(played)) {
+                        break;
+                    }
+                    board.makeMove(played);
+                }
+                game++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        try {
+            for (int i = 0; i < workers; i++) {
+                tasks.put(END_OF_GAMES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void work(BlockingQueue<Task> tasks, BlockingQueue<PositionAnalysis> results, AtomicReference<Throwable> failure) {
+        // Engines are not thread-safe, so every worker keeps its own
+        try (Engine engine = config.create()) {
+            Task task;
+            while ((task = tasks.take()) != END_OF_GAMES) {
+                if (failure.get() != null) {
+                    continue;
+                }
+                try {
+                    SearchResult result = engine.search(task.board);
+                    results.put(new PositionAnalysis(task.game, task.ply, task.board.getCurrentPlayer(), task.played, result));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            results.put(END_OF_RESULTS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public interface PositionSink {
+        void accept(PositionAnalysis analysis);
+    }
+    
+    private static class Task {
+        final int game;
+        final int ply;
+        final int played;
+        final GameBoard board;
+        
+        Task(int game, int ply, int played, GameBoard board) {
+            this.game = game;
+            this.ply = ply;
+            this.played = played;
+            this.board = board;
+        }
+    }
+    
+    // The engine's view of one position: games and plies count from 0 in input order
+    public static class PositionAnalysis {
+        final int game;
+        final int ply;
+        final int player;
+        final int played;
+        final int best;
+        final int score;
+        final int depth;
+        final long nodes;
+        final int[] principalVariation;
+        
+        PositionAnalysis(int game, int ply, int player, int played, SearchResult result) {
+            this.game = game;
+            this.ply = ply;
+            this.player = player;
+            this.played = played;
+            BrainEngine.Position move = result == null ? null : result.getMove();
+            this.best = move == null ? TranspositionTable.NO_MOVE : move.y * GameBoard.GRID_SIZE + move.x;
+            this.score = result == null ? 0 : result.getStats().getScore();
+            this.depth = result == null ? 0 : result.getStats().getCompletedDepth();
+            this.nodes = result == null ? 0 : result.getStats().getNodes();
+            this.principalVariation = result == null ? new int[0] : result.getPrincipalVariation();
+        }
+        
+        public int getGame() {
+            return game;
+        }
+        
+        public int getPly() {
+            return ply;
+        }
+        
+        // The move the game went on with, NO_MOVE after the last one
+        public int getPlayedMove() {
+            return played;
+        }
+        
+        public int getBestMove() {
+            return best;
+        }
+        
+        // From the side to move's point of view
+        public int getScore() {
+            return score;
+        }
+        
+        public int getDepth() {
+            return depth;
+        }
+        
+        public int[] getPrincipalVariation() {
+            return principalVariation.clone();
+        }
+        
+        String toJson() {
+            StringBuilder json = new StringBuilder(128);
+            json.append("{\"game\":").append(game)
+                .append(",\"ply\":").append(ply)
+                .append(",\"player\":").append(player)
+                .append(",\"played\":").append(quote(played))
+                .append(",\"best\":").append(quote(best))
+                .append(",\"score\":").append(score)
+                .append(",\"depth\":").append(depth)
+                .append(",\"nodes\":").append(nodes)
+                .append(",\"pv\":[");
+            for (int i = 0; i < principalVariation.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(quote(principalVariation[i]));
+            }
+            return json.append("]}").toString();
+        }
+        
+        private static String quote(int cell) {
+            if (cell == TranspositionTable.NO_MOVE) {
+                return "null";
+            }
+            return "\"" + cell % GameBoard.GRID_SIZE + "," + cell / GameBoard.GRID_SIZE + "\"";
+        }
+    }
+}
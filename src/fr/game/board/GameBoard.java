@@ -1,34 +1,161 @@
 package fr.game.board;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.SplittableRandom;
 
 public class GameBoard {
-    private static final int GRID_SIZE = 19;
-    private static final int WIN_SEQUENCE = 5;
-    private static final int MAX_CAPTURES = 10;
+    static final int GRID_SIZE = 19;
+    static final int CELL_COUNT = GRID_SIZE * GRID_SIZE;
+    static final int MAX_CAPTURES = 10;
+    private static final int WORDS = (CELL_COUNT + 63) >>> 6;
+    static final int MAX_PLIES = 512;
+    private static final int CAPTURE_KEY_COUNT = 32;
     
-    private final Stone[][] grid;
-    private final List<Move> moveHistory;
+    // Undo entry layout: cell | capture directions << 9 | previous state << 17 | mover << 19
+    private static final int CELL_MASK = 0x1FF;
+    private static final int CAPTURE_SHIFT = 9;
+    private static final int STATE_SHIFT = 17;
+    private static final int MOVER_SHIFT = 19;
+    
+    private static final GameState[] STATES = GameState.values();
+    
+    // Cell offset and number of on-board steps for each of the eight capture directions
+    private static final int[] STEP = new int[8];
+    private static final int[][] RAY = new int[8][CELL_COUNT];
+    
+    // Every row, column and diagonal is packed two bits per cell (0 empty, 1 black,
+    // 2 white, 3 off-board) with LINE_PADDING off-board cells on both ends
+    static final int LINE_PADDING = 5;
+    static final int LINE_COUNT = 2 * GRID_SIZE + 2 * (2 * GRID_SIZE - 1);
+    static final int[] LINE_LENGTH = new int[LINE_COUNT];
+    static final int[][] LINE_INDEX = new int[4][CELL_COUNT];
+    static final int[][] LINE_SHIFT = new int[4][CELL_COUNT];
+    private static final long[] EMPTY_LINES = new long[LINE_COUNT];
+    
+    // Zobrist keys, drawn from a fixed seed so hashes are stable across runs
+    private static final long[][] STONE_KEYS = new long[2][CELL_COUNT];
+    private static final long[][] CAPTURE_KEYS = new long[2][CAPTURE_KEY_COUNT];
+    private static final long SIDE_KEY;
+    
+    // The eight rotations and reflections of the board; RuleSet holds the cell maps
+    static final int SYMMETRIES = 8;
+    private static final int[] INVERSE = {0, 1, 2, 3, 4, 6, 5, 7};
+    
+    static {
+        SplittableRandom random = new SplittableRandom(0x9E3779B97F4A7C15L);
+        for (int player = 0; player < 2; player++) {
+            for (int cell = 0; cell < CELL_COUNT; cell++) {
+                STONE_KEYS[player][cell] = random.nextLong();
+            }
+            for (int count = 1; count < CAPTURE_KEY_COUNT; count++) {
+                CAPTURE_KEYS[player][count] = random.nextLong();
+            }
+        }
+        SIDE_KEY = random.nextLong();
+    }
+    
+    static {
+        Direction[] directions = Direction.values();
+        for (int d = 0; d < 8; d++) {
+            int sign = d < 4 ? 1 : -1;
+            int dx = directions[d & 3].getDx() * sign;
+            int dy = directions[d & 3].getDy() * sign;
+            STEP[d] = dy * GRID_SIZE + dx;
+            for (int cell = 0; cell < CELL_COUNT; cell++) {
+                int nx = cell % GRID_SIZE + dx;
+                int ny = cell / GRID_SIZE + dy;
+                int steps = 0;
+                while (nx >= 0 && nx < GRID_SIZE && ny >= 0 && ny < GRID_SIZE) {
+                    steps++;
+                    nx += dx;
+                    ny += dy;
+                }
+                RAY[d][cell] = steps;
+            }
+        }
+        
+        int[] lineBase = {0, GRID_SIZE, 2 * GRID_SIZE, 4 * GRID_SIZE - 1};
+        for (int cell = 0; cell < CELL_COUNT; cell++) {
+            int x = cell % GRID_SIZE;
+            int y = cell / GRID_SIZE;
+            int[] lineOffset = {y, x, x - y + GRID_SIZE - 1, x + y};
+            for (int d = 0; d < 4; d++) {
+                int line = lineBase[d] + lineOffset[d];
+                LINE_INDEX[d][cell] = line;
+                LINE_SHIFT[d][cell] = 2 * (RAY[d + 4][cell] + LINE_PADDING);
+                LINE_LENGTH[line] = RAY[d + 4][cell] + RAY[d][cell] + 1;
+            }
+        }
+        for (int line = 0; line < LINE_COUNT; line++) {
+            long cells = (1L << (2 * LINE_LENGTH[line])) - 1;
+            EMPTY_LINES[line] = ~(cells << (2 * LINE_PADDING));
+        }
+    }
+    
+    // The rule set's tables are copied into fields so the hot paths read them directly
+    private final RuleSet rules;
+    private final byte[][] flags;
+    private final int[][] nearby;
+    private final boolean forbidDoubleThree;
+    private final boolean exactFive;
+    private final int area;
+    
+    private final long[][] stones;
     private final int[] captureCount;
+    private final int[] undoStack;
+    private final long[] hashHistory;
+    private final long[] lines;
+    private final long[] candidates;
+    private final byte[] nearbyStones;
+    private BoardEvaluator evaluator;
+    private long hash;
+    private int ply;
     private int currentPlayer;
     private GameState state;
     
     public GameBoard() {
-        grid = new Stone[GRID_SIZE][GRID_SIZE];
-        moveHistory = new ArrayList<>();
+        this(RuleSet.NINUKI);
+    }
+    
+    public GameBoard(RuleSet rules) {
+        this.rules = rules;
+        flags = rules.flags;
+        nearby = rules.nearby;
+        forbidDoubleThree = rules.forbidDoubleThree;
+        exactFive = rules.exactFive;
+        area = rules.size * rules.size;
+        stones = new long[2][WORDS];
         captureCount = new int[2];
+        undoStack = new int[MAX_PLIES];
+        hashHistory = new long[MAX_PLIES];
+        lines = rules.emptyLines.clone();
+        candidates = new long[WORDS];
+        nearbyStones = new byte[CELL_COUNT];
+        evaluator = new PatternEvaluator(rules);
+        hash = rules.key;
+        ply = 0;
         currentPlayer = 0;
         state = GameState.PLAYING;
-        initializeBoard();
     }
     
-    private void initializeBoard() {
-        for (int y = 0; y < GRID_SIZE; y++) {
-            for (int x = 0; x < GRID_SIZE; x++) {
-                grid[y][x] = Stone.EMPTY;
-            }
-        }
+    public GameBoard(GameBoard other) {
+        rules = other.rules;
+        flags = other.flags;
+        nearby = other.nearby;
+        forbidDoubleThree = other.forbidDoubleThree;
+        exactFive = other.exactFive;
+        area = other.area;
+        stones = new long[][] { other.stones[0].clone(), other.stones[1].clone() };
+        captureCount = other.captureCount.clone();
+        undoStack = other.undoStack.clone();
+        hashHistory = other.hashHistory.clone();
+        lines = other.lines.clone();
+        candidates = other.candidates.clone();
+        nearbyStones = other.nearbyStones.clone();
+        evaluator = other.evaluator.copy();
+        hash = other.hash;
+        ply = other.ply;
+        currentPlayer = other.currentPlayer;
+        state = other.state;
     }
     
     public boolean placePiece(int x, int y) {
@@ -36,168 +163,259 @@ public class GameBoard {
             return false;
         }
         
-        grid[y][x] = currentPlayer == 0 ? Stone.BLACK : Stone.WHITE;
-        moveHistory.add(new Move(x, y, currentPlayer));
+        makeMove(y * GRID_SIZE + x);
+        return true;
+    }
+    
+    public boolean isLegalMove(int cell) {
+        return isValidMove(cell % GRID_SIZE, cell / GRID_SIZE);
+    }
+    
+    // Plays a move already known to be legal; every change is recorded for unmakeMove
+    public void makeMove(int cell) {
+        int mover = currentPlayer;
+        int entry = cell | (state.ordinal() << STATE_SHIFT) | (mover << MOVER_SHIFT);
+        hashHistory[ply] = hash;
         
-        checkCaptures(x, y);
-        if (captureCount[currentPlayer] >= MAX_CAPTURES) {
-            state = currentPlayer == 0 ? GameState.BLACK_WINS : GameState.WHITE_WINS;
-            return true;
+        addStone(cell, mover);
+        hash ^= STONE_KEYS[mover][cell];
+        entry |= checkCaptures(cell, mover) << CAPTURE_SHIFT;
+        undoStack[ply++] = entry;
+        
+        if (captureCount[mover] >= MAX_CAPTURES || checkWinningSequence(cell, mover)) {
+            state = mover == 0 ? GameState.BLACK_WINS : GameState.WHITE_WINS;
+            return;
+        }
+        // Any board filled up with nobody having won is a draw, whatever its size
+        if (ply - captureCount[0] - captureCount[1] == area) {
+            state = GameState.DRAW;
+            return;
         }
         
-        if (checkWinningSequence(x, y)) {
-            state = currentPlayer == 0 ? GameState.BLACK_WINS : GameState.WHITE_WINS;
-            return true;
+        currentPlayer = 1 - mover;
+        hash ^= SIDE_KEY;
+    }
+    
+    public void unmakeMove() {
+        int entry = undoStack[--ply];
+        int cell = entry & CELL_MASK;
+        int mover = (entry >>> MOVER_SHIFT) & 1;
+        int opponent = 1 - mover;
+        
+        // Put every captured pair back
+        int captured = (entry >>> CAPTURE_SHIFT) & 0xFF;
+        while (captured != 0) {
+            int step = STEP[Integer.numberOfTrailingZeros(captured)];
+            captured &= captured - 1;
+            addStone(cell + step, opponent);
+            addStone(cell + 2 * step, opponent);
+            captureCount[mover] -= 2;
         }
         
+        removeStone(cell, mover);
+        state = STATES[(entry >>> STATE_SHIFT) & 3];
+        currentPlayer = mover;
+        hash = hashHistory[ply];
+    }
+    
+    // Hands the move to the other side without placing a stone; a second call takes it back
+    void passTurn() {
         currentPlayer = 1 - currentPlayer;
-        return true;
+        hash ^= SIDE_KEY;
+    }
+    
+    // Whether this player placing a stone on the empty cell would legally win on the spot
+    boolean isWinningMove(int cell, int player) {
+        int freeThrees = 0;
+        int captures = 0;
+        boolean five = false;
+        for (int dir = 0; dir < 4; dir++) {
+            int found = flags[player][windowKey(dir, cell)];
+            if ((found & RuleTables.FREE_THREE) != 0) {
+                freeThrees++;
+            }
+            if (isFive(found, dir, cell, player)) {
+                five = true;
+            }
+            captures += (found & RuleTables.CAPTURE_FORWARD) != 0 ? 1 : 0;
+            captures += (found & RuleTables.CAPTURE_BACKWARD) != 0 ? 1 : 0;
+        }
+        if (forbidDoubleThree && freeThrees > 1) {
+            return false;
+        }
+        return five || captureCount[player] + 2 * captures >= MAX_CAPTURES;
     }
     
     private boolean isValidMove(int x, int y) {
-        if (x < 0 || x >= GRID_SIZE || y < 0 || y >= GRID_SIZE) {
+        if (!rules.contains(x, y)) {
             return false;
         }
-        if (grid[y][x] != Stone.EMPTY) {
+        int cell = y * GRID_SIZE + x;
+        if (!isEmpty(cell)) {
             return false;
         }
-        return !createsDoubleFreeThree(x, y);
+        return !forbidDoubleThree || !createsDoubleFreeThree(cell, currentPlayer);
     }
     
-    private void checkCaptures(int x, int y) {
-        for (Direction dir : Direction.values()) {
-            checkCaptureInDirection(x, y, dir);
+    private boolean createsDoubleFreeThree(int cell, int player) {
+        int freeThrees = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            if ((flags[player][windowKey(dir, cell)] & RuleTables.FREE_THREE) != 0) {
+                freeThrees++;
+            }
         }
+        return freeThrees > 1;
     }
     
-    private void checkCaptureInDirection(int x, int y, Direction dir) {
-        Stone current = grid[y][x];
-        int dx = dir.getDx();
-        int dy = dir.getDy();
-        
-        int x1 = x + dx;
-        int y1 = y + dy;
-        int x2 = x1 + dx;
-        int y2 = y1 + dy;
-        int x3 = x2 + dx;
-        int y3 = y2 + dy;
-        
-        if (!isInBounds(x3, y3)) {
-            return;
+    // One rule lookup per line tells whether the new stone captures on either side of it
+    private int checkCaptures(int cell, int player) {
+        int captured = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            int found = flags[player][windowKey(dir, cell)];
+            if ((found & RuleTables.CAPTURE_FORWARD) != 0) {
+                checkCaptureInDirection(cell, dir, player);
+                captured |= 1 << dir;
+            }
+            if ((found & RuleTables.CAPTURE_BACKWARD) != 0) {
+                checkCaptureInDirection(cell, dir + 4, player);
+                captured |= 1 << (dir + 4);
+            }
         }
+        return captured;
+    }
+    
+    private void checkCaptureInDirection(int cell, int dir, int player) {
+        int opponent = 1 - player;
+        int c1 = cell + STEP[dir];
+        int c2 = c1 + STEP[dir];
         
-        Stone opponent = current == Stone.BLACK ? Stone.WHITE : Stone.BLACK;
-        if (grid[y1][x1] == opponent && grid[y2][x2] == opponent && grid[y3][x3] == current) {
-            grid[y1][x1] = Stone.EMPTY;
-            grid[y2][x2] = Stone.EMPTY;
-            captureCount[currentPlayer] += 2;
-        }
+        removeStone(c1, opponent);
+        removeStone(c2, opponent);
+        hash ^= STONE_KEYS[opponent][c1] ^ STONE_KEYS[opponent][c2];
+        hash ^= CAPTURE_KEYS[player][captureCount[player]];
+        captureCount[player] += 2;
+        hash ^= CAPTURE_KEYS[player][captureCount[player]];
     }
     
-    private boolean checkWinningSequence(int x, int y) {
-        for (Direction dir : Direction.values()) {
-            if (countSequence(x, y, dir) >= WIN_SEQUENCE) {
+    private boolean checkWinningSequence(int cell, int player) {
+        for (int dir = 0; dir < 4; dir++) {
+            if (isFive(flags[player][windowKey(dir, cell)], dir, cell, player)) {
                 return true;
             }
         }
         return false;
     }
     
-    private int countSequence(int x, int y, Direction dir) {
-        Stone current = grid[y][x];
-        int count = 1;
-        int dx = dir.getDx();
-        int dy = dir.getDy();
-        
-        // Count in positive direction
-        int nx = x + dx;
-        int ny = y + dy;
-        while (isInBounds(nx, ny) && grid[ny][nx] == current) {
-            count++;
-            nx += dx;
-            ny += dy;
+    // Under exact-five rules a five reaching the edge of the window is only a five if the
+    // cell just past it is not another own stone; the line padding keeps that cell in range
+    private boolean isFive(int found, int dir, int cell, int player) {
+        if ((found & RuleTables.FIVE) == 0) {
+            return false;
         }
-        
-        // Count in negative direction
-        nx = x - dx;
-        ny = y - dy;
-        while (isInBounds(nx, ny) && grid[ny][nx] == current) {
-            count++;
-            nx -= dx;
-            ny -= dy;
+        if (!exactFive) {
+            return true;
         }
-        
-        return count;
+        long line = lines[LINE_INDEX[dir][cell]];
+        int shift = LINE_SHIFT[dir][cell];
+        long own = player + 1;
+        if ((found & RuleTables.OVERLINE_FORWARD) != 0 && (line >>> (shift + 10) & 3) == own) {
+            return false;
+        }
+        return (found & RuleTables.OVERLINE_BACKWARD) == 0 || (line >>> (shift - 10) & 3) != own;
     }
     
-    private boolean createsDoubleFreeThree(int x, int y) {
-        Stone temp = grid[y][x];
-        grid[y][x] = currentPlayer == 0 ? Stone.BLACK : Stone.WHITE;
-        
-        int freeThrees = 0;
-        for (Direction dir : Direction.values()) {
-            if (isFreeThree(x, y, dir)) {
-                freeThrees++;
-                if (freeThrees > 1) {
-                    grid[y][x] = temp;
-                    return true;
-                }
+    private boolean hasStone(int player, int cell) {
+        return (stones[player][cell >>> 6] & (1L << cell)) != 0;
+    }
+    
+    private void addStone(int cell, int player) {
+        evaluator.onAdd(this, cell, player);
+        setStone(cell, player);
+        candidates[cell >>> 6] &= ~(1L << cell);
+        for (int near : nearby[cell]) {
+            if (nearbyStones[near]++ == 0 && isEmpty(near)) {
+                candidates[near >>> 6] |= 1L << near;
             }
         }
-        
-        grid[y][x] = temp;
-        return false;
     }
     
-    private boolean isFreeThree(int x, int y, Direction dir) {
-        Stone current = grid[y][x];
-        int dx = dir.getDx();
-        int dy = dir.getDy();
-        
-        int count = 1;
-        boolean hasSpace = false;
-        
-        // Check forward
-        int nx = x + dx;
-        int ny = y + dy;
-        while (isInBounds(nx, ny) && count < 4) {
-            if (grid[ny][nx] == current) {
-                count++;
-            } else if (grid[ny][nx] == Stone.EMPTY) {
-                hasSpace = true;
-                break;
-            } else {
-                return false;
+    private void removeStone(int cell, int player) {
+        evaluator.onRemove(this, cell, player);
+        clearStone(cell, player);
+        if (nearbyStones[cell] > 0) {
+            candidates[cell >>> 6] |= 1L << cell;
+        }
+        for (int near : nearby[cell]) {
+            if (--nearbyStones[near] == 0) {
+                candidates[near >>> 6] &= ~(1L << near);
             }
-            nx += dx;
-            ny += dy;
         }
-        
-        // Check backward
-        nx = x - dx;
-        ny = y - dy;
-        while (isInBounds(nx, ny) && count < 4) {
-            if (grid[ny][nx] == current) {
-                count++;
-            } else if (grid[ny][nx] == Stone.EMPTY) {
-                hasSpace = true;
-                break;
-            } else {
-                return false;
+    }
+    
+    private void setStone(int cell, int player) {
+        stones[player][cell >>> 6] |= 1L << cell;
+        updateLines(cell, player);
+    }
+    
+    private void clearStone(int cell, int player) {
+        stones[player][cell >>> 6] &= ~(1L << cell);
+        updateLines(cell, player);
+    }
+    
+    // The cell is empty on one side of the change, so xor both sets and clears its code
+    private void updateLines(int cell, int player) {
+        long code = player + 1;
+        lines[LINE_INDEX[0][cell]] ^= code << LINE_SHIFT[0][cell];
+        lines[LINE_INDEX[1][cell]] ^= code << LINE_SHIFT[1][cell];
+        lines[LINE_INDEX[2][cell]] ^= code << LINE_SHIFT[2][cell];
+        lines[LINE_INDEX[3][cell]] ^= code << LINE_SHIFT[3][cell];
+    }
+    
+    // Every line of the full grid with nothing on it
+    static long[] emptyLines() {
+        return EMPTY_LINES.clone();
+    }
+    
+    long getLine(int line) {
+        return lines[line];
+    }
+    
+    // The RuleTables flags of a stone of this player at the centre of a GameBoard.windowKey
+    int ruleFlags(int player, int key) {
+        return flags[player][key];
+    }
+    
+    // The four cells on each side of this one along a direction, two bits each: -4..-1 in the low byte, +1..+4 in the high byte
+    int windowKey(int dir, int cell) {
+        int shift = LINE_SHIFT[dir][cell];
+        int window = (int) (lines[LINE_INDEX[dir][cell]] >>> (shift - 8)) & 0x3FFFF;
+        return (window & 0xFF) | ((window >>> 10) << 8);
+    }
+    
+    // Writes every empty cell near a stone into moves and returns how many there are
+    public int collectCandidates(int[] moves) {
+        int count = 0;
+        for (int word = 0; word < WORDS; word++) {
+            long bits = candidates[word];
+            while (bits != 0) {
+                moves[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
             }
-            nx -= dx;
-            ny -= dy;
         }
-        
-        return count == 3 && hasSpace;
+        return count;
     }
     
-    private boolean isInBounds(int x, int y) {
-        return x >= 0 && x < GRID_SIZE && y >= 0 && y < GRID_SIZE;
+    public boolean isEmpty(int cell) {
+        int word = cell >>> 6;
+        return ((stones[0][word] | stones[1][word]) & (1L << cell)) == 0;
     }
     
     public Stone getStone(int x, int y) {
-        return grid[y][x];
+        int cell = y * GRID_SIZE + x;
+        if (hasStone(0, cell)) {
+            return Stone.BLACK;
+        }
+        return hasStone(1, cell) ? Stone.WHITE : Stone.EMPTY;
     }
     
     public GameState getState() {
@@ -212,6 +430,71 @@ public class GameBoard {
         return captureCount[player];
     }
     
+    public int evaluate(int player) {
+        return evaluator.evaluate(this, player);
+    }
+    
+    public BoardEvaluator getEvaluator() {
+        return evaluator;
+    }
+    
+    public void setEvaluator(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+        evaluator.reset(this);
+    }
+    
+    public RuleSet getRules() {
+        return rules;
+    }
+    
+    public long getHash() {
+        return hash;
+    }
+    
+    public BoardSnapshot snapshot(long version) {
+        long[][] copy = { stones[0].clone(), stones[1].clone() };
+        int lastMove = ply > 0 ? getMove(ply - 1) : -1;
+        return new BoardSnapshot(version, copy, captureCount.clone(), currentPlayer, ply, lastMove, state);
+    }
+    
+    int transform(int symmetry, int cell) {
+        return rules.symmetry[symmetry][cell];
+    }
+    
+    static int inverse(int symmetry) {
+        return INVERSE[symmetry];
+    }
+    
+    // The hash this position would have after the given rotation or reflection
+    long symmetricHash(int symmetry) {
+        int[] map = rules.symmetry[symmetry];
+        long key = rules.key ^ (currentPlayer == 1 ? SIDE_KEY : 0);
+        for (int player = 0; player < 2; player++) {
+            key ^= CAPTURE_KEYS[player][captureCount[player]];
+            for (int word = 0; word < WORDS; word++) {
+                long bits = stones[player][word];
+                while (bits != 0) {
+                    key ^= STONE_KEYS[player][map[(word << 6) + Long.numberOfTrailingZeros(bits)]];
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return key;
+    }
+    
+    public int getMoveCount() {
+        return ply;
+    }
+    
+    public int getMove(int index) {
+        return undoStack[index] & CELL_MASK;
+    }
+    
+    // Whether the move at this index took at least one pair
+    boolean capturedAt(int index) {
+        return (undoStack[index] >>> CAPTURE_SHIFT & 0xFF) != 0;
+    }
+    
     public enum Stone {
         EMPTY, BLACK, WHITE
     }
@@ -237,16 +520,4 @@ public class GameBoard {
         public int getDx() { return dx; }
         public int getDy() { return dy; }
     }
-    
-    private static class Move {
-        final int x;
-        final int y;
-        final int player;
-        
-        Move(int x, int y, int player) {
-            this.x = x;
-            this.y = y;
-            this.player = player;
-        }
-    }
 }
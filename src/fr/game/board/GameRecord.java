@@ -0,0 +1,146 @@
+package fr.game.board;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+// One game as the moves played, two bytes each: the cell in the low nine bits and flags
+// above it. Replaying the moves rebuilds the board at any ply.
+public class GameRecord {
+    public static final String EXTENSION = ".gmr";
+    static final int MAGIC = 0x474D5243;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    // Move count (2 bytes) and result (2 bytes) ahead of the moves, a CRC32 of all of it behind
+    static final int FRAME_BYTES = 8;
+    
+    static final int CELL_MASK = 0x1FF;
+    static final int CAPTURE_FLAG = 1 << 9;
+    static final int WIN_FLAG = 1 << 10;
+    
+    private static final GameBoard.GameState[] RESULTS = GameBoard.GameState.values();
+    
+    private final short[] moves;
+    private final GameBoard.GameState result;
+    
+    private GameRecord(short[] moves, GameBoard.GameState result) {
+        this.moves = moves;
+        this.result = result;
+    }
+    
+    // The game so far; PLAYING as the result means it was saved before it ended
+    public static GameRecord of(GameBoard board) {
+        int count = board.getMoveCount();
+        short[] moves = new short[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = (short) (board.getMove(i) | (board.capturedAt(i) ? CAPTURE_FLAG : 0));
+        }
+        GameBoard.GameState state = board.getState();
+        if (count > 0 && (state == GameBoard.GameState.BLACK_WINS || state == GameBoard.GameState.WHITE_WINS)) {
+            moves[count - 1] |= WIN_FLAG;
+        }
+        return new GameRecord(moves, state);
+    }
+    
+    public int getMoveCount() {
+        return moves.length;
+    }
+    
+    public int getMove(int ply) {
+        return moves[ply] & CELL_MASK;
+    }
+    
+    public boolean isCapture(int ply) {
+        return (moves[ply] & CAPTURE_FLAG) != 0;
+    }
+    
+    public GameBoard.GameState getResult() {
+        return result;
+    }
+    
+    public int[] getMoves() {
+        int[] cells = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            cells[i] = moves[i] & CELL_MASK;
+        }
+        return cells;
+    }
+    
+    // A new board with the first ply moves played; getMoveCount() gives the final position
+    public GameBoard replay(int ply) {
+        return replay(RuleSet.NINUKI, ply);
+    }
+    
+    // The file does not say which rules a game was played under, so the caller does
+    public GameBoard replay(RuleSet rules, int ply) {
+        return seek(new GameBoard(rules), ply);
+    }
+    
+    // Brings a board to this game's position at ply, only taking back the moves where it
+    // differs, so stepping a viewer back or forward costs one unmake or make per ply
+    public GameBoard seek(GameBoard board, int ply) {
+        if (ply < 0 || ply > moves.length) {
+            throw new IllegalArgumentException("no ply " + ply + " in a game of " + moves.length + " moves");
+        }
+        int common = 0;
+        int shared = Math.min(board.getMoveCount(), ply);
+        while (common < shared && board.getMove(common) == getMove(common)) {
+            common++;
+        }
+        while (board.getMoveCount() > common) {
+            board.unmakeMove();
+        }
+        for (int i = common; i < ply; i++) {
+            int cell = getMove(i);
+            if (board.getState() != GameBoard.GameState.PLAYING || !board.isLegalMove(cell)) {
+                throw new IllegalArgumentException("illegal move " + cell % GameBoard.GRID_SIZE + ","
+                    + cell / GameBoard.GRID_SIZE + " at ply " + i);
+            }
+            board.makeMove(cell);
+        }
+        return board;
+    }
+    
+    int encodedSize() {
+        return FRAME_BYTES + 2 * moves.length;
+    }
+    
+    void encode(ByteBuffer out) {
+        int start = out.position();
+        out.putShort((short) moves.length).putShort((short) result.ordinal());
+        for (short move : moves) {
+            out.putShort(move);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.duplicate().position(start).limit(out.position()));
+        out.putInt((int) crc.getValue());
+    }
+    
+    // Decodes the record at the buffer's position, or returns null without moving it when the
+    // bytes there are not a whole, intact record
+    static GameRecord decode(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < FRAME_BYTES) {
+            return null;
+        }
+        int count = in.getShort(start) & 0xFFFF;
+        int result = in.getShort(start + 2) & 0xFFFF;
+        if (count > GameBoard.MAX_PLIES || result >= RESULTS.length || in.remaining() < FRAME_BYTES + 2 * count) {
+            return null;
+        }
+        int body = 4 + 2 * count;
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().limit(start + body));
+        if ((int) crc.getValue() != in.getInt(start + body)) {
+            return null;
+        }
+        short[] moves = new short[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = in.getShort(start + 4 + 2 * i);
+            if ((moves[i] & CELL_MASK) >= GameBoard.CELL_COUNT) {
+                return null;
+            }
+        }
+        in.position(start + body + 4);
+        return new GameRecord(moves, RESULTS[result]);
+    }
+}
@@ -0,0 +1,102 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+// Streams the games of a record file front to back through a small buffer, so files of any
+// size can be read. A torn or damaged tail, which is what a crash mid-write leaves behind,
+// simply ends the stream.
+public class GameRecordReader implements AutoCloseable {
+    private static final int BUFFER_BYTES = 1 << 16;
+    
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private long validBytes;
+    private boolean finished;
+    
+    public GameRecordReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        if (!fill(GameRecord.HEADER_BYTES)
+            || buffer.getInt() != GameRecord.MAGIC || buffer.getInt() != GameRecord.VERSION) {
+            throw new IOException("not a game record file");
+        }
+        validBytes = GameRecord.HEADER_BYTES;
+    }
+    
+    public static GameRecordReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new GameRecordReader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    // The next game, or null at the end of the intact records
+    public GameRecord read() throws IOException {
+        if (finished) {
+            return null;
+        }
+        fill(GameRecord.FRAME_BYTES);
+        if (buffer.remaining() >= 2) {
+            fill(GameRecord.FRAME_BYTES + 2 * (buffer.getShort(buffer.position()) & 0xFFFF));
+        }
+        GameRecord record = GameRecord.decode(buffer);
+        if (record == null) {
+            finished = true;
+            return null;
+        }
+        validBytes += record.encodedSize();
+        return record;
+    }
+    
+    // Length of the file up to the end of the last intact record read so far
+    public long getValidBytes() {
+        return validBytes;
+    }
+    
+    // The remaining games, read lazily; read errors surface as UncheckedIOException
+    public Stream<GameRecord> stream() {
+        return Stream.iterate(readUnchecked(), Objects::nonNull, previous -> readUnchecked());
+    }
+    
+    private GameRecord readUnchecked() {
+        try {
+            return read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Reads until at least this many bytes are buffered or the channel runs dry
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes && buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+        return buffer.remaining() >= bytes;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
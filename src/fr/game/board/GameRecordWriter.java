@@ -0,0 +1,94 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Appends games to a record file. Each game is checksummed and goes out in one write, so a
+// crash can only cut off the game being written; opening the file again drops that torn
+// tail before anything new is appended. A damaged game with more of the file behind it is
+// not a torn tail, and the file is left alone rather than lose the games after it.
+// With sync every game is also forced to disk.
+public class GameRecordWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final boolean sync;
+    private final ByteBuffer buffer = ByteBuffer.allocate(GameRecord.FRAME_BYTES + 2 * GameBoard.MAX_PLIES);
+    
+    private GameRecordWriter(FileChannel channel, boolean sync) {
+        this.channel = channel;
+        this.sync = sync;
+    }
+    
+    public static GameRecordWriter open(Path path, boolean sync) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            long end;
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(GameRecord.HEADER_BYTES);
+                header.putInt(GameRecord.MAGIC).putInt(GameRecord.VERSION).flip();
+                writeFully(channel, header);
+                end = GameRecord.HEADER_BYTES;
+            } else {
+                // Left unclosed, the reader leaves the channel open for writing
+                GameRecordReader reader = new GameRecordReader(channel);
+                while (reader.read() != null) {
+                    // Only the length of the intact part matters here
+                }
+                end = reader.getValidBytes();
+                if (end < channel.size() && !isTornTail(channel, end)) {
+                    throw new IOException("damaged game record at byte " + end + " of " + path + " with "
+                        + (channel.size() - end) + " bytes after it; not appending");
+                }
+            }
+            channel.truncate(end);
+            channel.position(end);
+            return new GameRecordWriter(channel, sync);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    // Whether the bytes from end on can only be the game a crash cut off: too short to be a
+    // game, or a game whose frame runs to the end of the file, so nothing intact is behind it
+    private static boolean isTornTail(FileChannel channel, long end) throws IOException {
+        long remaining = channel.size() - end;
+        if (remaining < GameRecord.FRAME_BYTES) {
+            return true;
+        }
+        ByteBuffer count = ByteBuffer.allocate(2);
+        while (count.hasRemaining() && channel.read(count, end + count.position()) >= 0) {
+            // A positional read may come back short
+        }
+        int moves = count.getShort(0) & 0xFFFF;
+        return moves <= GameBoard.MAX_PLIES && GameRecord.FRAME_BYTES + 2L * moves >= remaining;
+    }
+    
+    public synchronized void append(GameRecord record) throws IOException {
+        buffer.clear();
+        record.encode(buffer);
+        buffer.flip();
+        writeFully(channel, buffer);
+        if (sync) {
+            channel.force(false);
+        }
+    }
+    
+    public void append(GameBoard board) throws IOException {
+        append(GameRecord.of(board));
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,201 @@
+package fr.game.board;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One game driven by Gomocup-style text commands; every call returns the reply line, or null
+public class GameSession {
+    private static final String ABOUT = "name=\"Gomoku\", version=\"1.0\", author=\"42\", country=\"FR\"";
+    // Fraction of the remaining match time a single move may use
+    private static final int TIME_LEFT_DIVISOR = 10;
+    
+    private final EnginePool engines;
+    private final long defaultTurnMillis;
+    private final List<int[]> boardLines;
+    // START may change the size; the rest of the rules stay as the server was started with
+    private RuleSet rules;
+    private GameBoard board;
+    private long turnMillis;
+    private long timeLeftMillis;
+    private boolean readingBoard;
+    private boolean ended;
+    
+    public GameSession(EnginePool engines, RuleSet rules, long defaultTurnMillis) {
+        this.engines = engines;
+        this.defaultTurnMillis = defaultTurnMillis;
+        this.boardLines = new ArrayList<>();
+        this.rules = rules;
+        this.board = new GameBoard(rules);
+        this.turnMillis = defaultTurnMillis;
+        this.timeLeftMillis = -1;
+    }
+    
+    public boolean isEnded() {
+        return ended;
+    }
+    
+    public String handle(String line) throws InterruptedException {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        if (readingBoard) {
+            return readBoardLine(trimmed);
+        }
+        
+        String[] parts = trimmed.split("\\s+", 2);
+        String command = parts[0].toUpperCase();
+        String argument = parts.length > 1 ? parts[1] : "";
+        
+        switch (command) {
+            case "START":
+                return start(argument);
+            case "RESTART":
+                board = new GameBoard(rules);
+                return "OK";
+            case "BEGIN":
+                return playEngineMove();
+            case "TURN":
+                return turn(argument);
+            case "BOARD":
+                board = new GameBoard(rules);
+                boardLines.clear();
+                readingBoard = true;
+                return null;
+            case "TAKEBACK":
+                return takeback(argument);
+            case "INFO":
+                info(argument);
+                return null;
+            case "ABOUT":
+                return ABOUT;
+            case "END":
+                ended = true;
+                return null;
+            default:
+                return "UNKNOWN " + command;
+        }
+    }
+    
+    private String start(String argument) {
+        int size;
+        try {
+            size = Integer.parseInt(argument.trim());
+        } catch (NumberFormatException e) {
+            return "ERROR bad size";
+        }
+        if (size < RuleSet.MIN_SIZE || size > GameBoard.GRID_SIZE) {
+            return "ERROR unsupported size";
+        }
+        rules = rules.withSize(size);
+        board = new GameBoard(rules);
+        turnMillis = defaultTurnMillis;
+        timeLeftMillis = -1;
+        return "OK";
+    }
+    
+    private String turn(String argument) throws InterruptedException {
+        int[] move = parseMove(argument);
+        if (move == null || !board.placePiece(move[0], move[1])) {
+            return "ERROR illegal move " + argument;
+        }
+        return playEngineMove();
+    }
+    
+    private String takeback(String argument) {
+        int[] move = parseMove(argument);
+        int count = board.getMoveCount();
+        if (move == null || count == 0 || board.getMove(count - 1) != move[1] * GameBoard.GRID_SIZE + move[0]) {
+            return "ERROR cannot take back " + argument;
+        }
+        board.unmakeMove();
+        return "OK";
+    }
+    
+    // Stones arrive in the order they were played as x,y,field with field 1 for our own stones
+    private String readBoardLine(String line) throws InterruptedException {
+        if (!line.equalsIgnoreCase("DONE")) {
+            String[] fields = line.split(",");
+            if (fields.length != 3) {
+                readingBoard = false;
+                return "ERROR bad board line " + line;
+            }
+            try {
+                boardLines.add(new int[] {
+                    Integer.parseInt(fields[0].trim()),
+                    Integer.parseInt(fields[1].trim()),
+                    Integer.parseInt(fields[2].trim())
+                });
+            } catch (NumberFormatException e) {
+                readingBoard = false;
+                return "ERROR bad board line " + line;
+            }
+            return null;
+        }
+        
+        readingBoard = false;
+        // We move next, so our colour is the one that matches the number of stones played
+        int ownColour = boardLines.size() % 2;
+        for (int i = 0; i < boardLines.size(); i++) {
+            int[] stone = boardLines.get(i);
+            int colour = stone[2] == 1 ? ownColour : 1 - ownColour;
+            if (colour != i % 2 || !board.placePiece(stone[0], stone[1])) {
+                return "ERROR board does not replay at " + stone[0] + "," + stone[1];
+            }
+        }
+        return playEngineMove();
+    }
+    
+    private void info(String argument) {
+        String[] parts = argument.trim().split("\\s+", 2);
+        if (parts.length < 2) {
+            return;
+        }
+        try {
+            long value = Long.parseLong(parts[1].trim());
+            if (parts[0].equalsIgnoreCase("timeout_turn")) {
+                turnMillis = value > 0 ? value : defaultTurnMillis;
+            } else if (parts[0].equalsIgnoreCase("time_left")) {
+                timeLeftMillis = value;
+            }
+        } catch (NumberFormatException e) {
+            // Other keys and malformed values do not change how we play
+        }
+    }
+    
+    private String playEngineMove() throws InterruptedException {
+        if (board.getState() != GameBoard.GameState.PLAYING) {
+            return "ERROR game is over";
+        }
+        
+        long budget = turnMillis;
+        if (timeLeftMillis > 0) {
+            budget = Math.min(budget, timeLeftMillis / TIME_LEFT_DIVISOR);
+        }
+        
+        BrainEngine engine = engines.acquire();
+        BrainEngine.Position move;
+        try {
+            move = engine.findBestMove(board, Math.max(1, budget));
+        } finally {
+            engines.release(engine);
+        }
+        
+        if (move == null || !board.placePiece(move.x, move.y)) {
+            return "ERROR no legal move";
+        }
+        return move.x + "," + move.y;
+    }
+    
+    private static int[] parseMove(String argument) {
+        String[] fields = argument.split(",");
+        if (fields.length != 2) {
+            return null;
+        }
+        try {
+            return new int[] {Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
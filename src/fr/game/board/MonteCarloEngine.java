@@ -0,0 +1,696 @@
+package fr.game.board;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Monte Carlo tree search with PUCT selection. Every simulation walks down the tree, grows it
+// by one node's children, plays a short rollout led by the move generator and scores the end
+// with the evaluator. The tree lives in flat arrays indexed by node, each node's children in
+// one block, and is shared by all threads: a thread passing through a node counts as a few lost
+// visits in selection until its result comes back, which sends the others down different lines.
+// Between moves the subtree of the position reached is kept, until the pool runs half full.
+public class MonteCarloEngine implements Engine {
+    private static final long DEFAULT_TIME_BUDGET_MS = 450;
+    private static final int DEFAULT_TREE_NODES = 1 << 20;
+    // Candidates a node is expanded with besides moves that make or stop a four, and a rollout picks from
+    private static final int EXPANSION_WIDTH = 12;
+    private static final int ROLLOUT_WIDTH = 3;
+    private static final int ROLLOUT_PLIES = 8;
+    // A leaf is expanded on its second visit, so one-off lines do not fill the pool
+    private static final int EXPANSION_VISITS = 2;
+    private static final double EXPLORATION = 1.5;
+    // An unvisited child is assumed this much worse than its parent
+    private static final double FIRST_PLAY_REDUCTION = 0.1;
+    private static final int VIRTUAL_LOSS = 3;
+    // Value sums are kept in thousandths of a win
+    private static final int VALUE_UNIT = 1000;
+    // Scores map to win chances as sigmoid(score / SCORE_SCALE), and the other way round for reports
+    private static final double SCORE_SCALE = 2000;
+    private static final int CLOCK_CHECK_INTERVAL = 64;
+    private static final long VCF_NODES = 20_000;
+    private static final long VCT_NODES = 20_000;
+    private static final int THREAT_TIME_SHARE = 4;
+    private static final long PONDER_BUDGET_NANOS = Long.MAX_VALUE / 4;
+    
+    private static final int LEAF = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+    // The pool ran out while expanding it, or nothing the generator offered was legal; it
+    // stays a leaf for good and rollouts score it
+    private static final int FULL = 3;
+    // The opponent wins next move and nothing blocks or captures: lost for the side to move
+    private static final int LOST = 4;
+    
+    private final long timeBudgetMillis;
+    private final int capacity;
+    private final short[] moves;
+    private final float[] priors;
+    private final int[] firstChild;
+    private final short[] childCount;
+    private final AtomicIntegerArray states;
+    // Finished simulations only; the threads still below a node are counted apart
+    private final AtomicIntegerArray visits;
+    private final AtomicIntegerArray inFlight;
+    // From the point of view of the side that played the node's move
+    private final AtomicLongArray values;
+    private final AtomicInteger nextFree = new AtomicInteger();
+    private final Worker[] workers;
+    private final ExecutorService helperPool;
+    private final ThreatSolver solver = new ThreatSolver(() -> this.stopped);
+    private OpeningBook book;
+    private BoardEvaluator evaluator;
+    private volatile SearchMonitor monitor;
+    private FutureTask<SearchResult> ponderTask;
+    // The position the tree's root stands for, as the moves leading to it
+    private int root = -1;
+    private int[] rootMoves = new int[0];
+    private long rootHash;
+    private long startThinkTime;
+    private long deadline;
+    private volatile boolean stopped;
+    private SearchStats lastStats = new SearchStats();
+    
+    public MonteCarloEngine() {
+        this(DEFAULT_TIME_BUDGET_MS, 1);
+    }
+    
+    public MonteCarloEngine(long timeBudgetMillis, int threads) {
+        this(timeBudgetMillis, threads, DEFAULT_TREE_NODES);
+    }
+    
+    public MonteCarloEngine(long timeBudgetMillis, int threads, int treeNodes) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.capacity = treeNodes;
+        moves = new short[treeNodes];
+        priors = new float[treeNodes];
+        firstChild = new int[treeNodes];
+        childCount = new short[treeNodes];
+        states = new AtomicIntegerArray(treeNodes);
+        visits = new AtomicIntegerArray(treeNodes);
+        inFlight = new AtomicIntegerArray(treeNodes);
+        values = new AtomicLongArray(treeNodes);
+        
+        workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+        helperPool = workers.length > 1 ? Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+            Thread thread = new Thread(runnable, "mcts-helper");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+    
+    @Override
+    public SearchResult search(GameBoard board) {
+        return search(board, timeBudgetMillis);
+    }
+    
+    @Override
+    public SearchResult search(GameBoard board, long timeBudgetMillis) {
+        stopPondering(null);
+        stopped = false;
+        return run(board, timeBudgetMillis * 1_000_000L, monitor);
+    }
+    
+    // Grows the tree under the opponent's position; the reply they play keeps its subtree
+    @Override
+    public synchronized void startPondering(GameBoard afterOwnMove) {
+        stopPondering(null);
+        if (afterOwnMove.getState() != GameBoard.GameState.PLAYING) {
+            return;
+        }
+        GameBoard position = new GameBoard(afterOwnMove);
+        stopped = false;
+        ponderTask = new FutureTask<>(() -> run(position, PONDER_BUDGET_NANOS, null));
+        Thread thread = new Thread(ponderTask, "ponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // The pondered tree is only ever reused, never played from directly
+    @Override
+    public synchronized SearchResult stopPondering(GameBoard current) {
+        if (ponderTask == null) {
+            return null;
+        }
+        stopped = true;
+        try {
+            ponderTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            ponderTask = null;
+        }
+        return null;
+    }
+    
+    private SearchResult run(GameBoard board, long budgetNanos, SearchMonitor progress) {
+        startThinkTime = System.nanoTime();
+        deadline = startThinkTime + budgetNanos;
+        Worker main = workers[0];
+        for (Worker worker : workers) {
+            worker.prepare(board);
+        }
+        main.monitor = progress;
+        if (board.getState() != GameBoard.GameState.PLAYING) {
+            return finish(null, board);
+        }
+        if (book != null) {
+            int bookMove = book.lookup(board, null);
+            if (bookMove != TranspositionTable.NO_MOVE && board.isLegalMove(bookMove)) {
+                main.stats.bookMove = true;
+                return finish(new BrainEngine.Position(bookMove % GameBoard.GRID_SIZE, bookMove / GameBoard.GRID_SIZE), board);
+            }
+        }
+        
+        // A forced win needs no statistics
+        long threatDeadline = startThinkTime + budgetNanos / THREAT_TIME_SHARE;
+        long solverStart = solver.getNodeCount();
+        GameBoard threatBoard = ThreatSolver.copyForSolving(board);
+        int win = solver.findWin(threatBoard, false, VCF_NODES, threatDeadline);
+        if (win == TranspositionTable.NO_MOVE) {
+            win = solver.findWin(threatBoard, true, VCT_NODES, threatDeadline);
+        }
+        main.stats.threatNodes = solver.getNodeCount() - solverStart;
+        if (win != TranspositionTable.NO_MOVE) {
+            main.stats.score = BrainEngine.WIN_SCORE;
+            return finish(new BrainEngine.Position(win % GameBoard.GRID_SIZE, win / GameBoard.GRID_SIZE), board);
+        }
+        
+        moveRoot(board);
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            Worker helper = workers[i];
+            helpers.add(helperPool.submit(helper::simulateUntilStopped));
+        }
+        main.simulateUntilStopped();
+        stopped = true;
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        
+        int best = mostVisitedChild(root);
+        if (best < 0) {
+            return finish(null, board);
+        }
+        main.stats.score = toScore(winRate(best));
+        return finish(new BrainEngine.Position(moves[best] % GameBoard.GRID_SIZE, moves[best] / GameBoard.GRID_SIZE), board);
+    }
+    
+    private SearchResult finish(BrainEngine.Position move, GameBoard board) {
+        SearchStats stats = new SearchStats();
+        for (Worker worker : workers) {
+            stats.add(worker.stats);
+        }
+        Worker main = workers[0];
+        stats.score = main.stats.score;
+        stats.elapsedNanos = System.nanoTime() - startThinkTime;
+        int[] line = move == null ? new int[0] : new int[] {move.y * GameBoard.GRID_SIZE + move.x};
+        if (move != null && root >= 0 && rootHash == board.getHash() && !stats.bookMove
+            && stats.score != BrainEngine.WIN_SCORE) {
+            line = principalVariation();
+        }
+        stats.completedDepth = line.length;
+        lastStats = stats;
+        if (main.monitor != null) {
+            main.publish(stats.score, line, true);
+            main.monitor = null;
+        }
+        return new SearchResult(move, stats, line);
+    }
+    
+    // Keeps the subtree of the new position when the old root leads there through the tree,
+    // otherwise starts over; so does a pool that is already half used
+    private void moveRoot(GameBoard board) {
+        int node = root;
+        int count = board.getMoveCount();
+        if (node >= 0 && count >= rootMoves.length && nextFree.get() < capacity / 2) {
+            for (int i = 0; i < rootMoves.length && node >= 0; i++) {
+                if (board.getMove(i) != rootMoves[i]) {
+                    node = -1;
+                }
+            }
+            for (int i = rootMoves.length; i < count && node >= 0; i++) {
+                node = findChild(node, board.getMove(i));
+            }
+        } else {
+            node = -1;
+        }
+        if (node < 0) {
+            nextFree.set(0);
+            node = allocate(1);
+            moves[node] = (short) (count > 0 ? board.getMove(count - 1) : TranspositionTable.NO_MOVE);
+            priors[node] = 1;
+            clear(node);
+        }
+        root = node;
+        rootHash = board.getHash();
+        rootMoves = new int[count];
+        for (int i = 0; i < count; i++) {
+            rootMoves[i] = board.getMove(i);
+        }
+    }
+    
+    private int findChild(int node, int cell) {
+        if (states.get(node) != EXPANDED) {
+            return -1;
+        }
+        int first = firstChild[node];
+        for (int child = first; child < first + childCount[node]; child++) {
+            if (moves[child] == cell) {
+                return child;
+            }
+        }
+        return -1;
+    }
+    
+    // A block of consecutive nodes, or -1 when the pool cannot hold it
+    private int allocate(int count) {
+        int first = nextFree.getAndAdd(count);
+        return first + count <= capacity ? first : -1;
+    }
+    
+    private void clear(int node) {
+        firstChild[node] = -1;
+        childCount[node] = 0;
+        visits.set(node, 0);
+        inFlight.set(node, 0);
+        values.set(node, 0);
+        states.set(node, LEAF);
+    }
+    
+    private double winRate(int node) {
+        int n = visits.get(node);
+        return n == 0 ? 0.5 : values.get(node) / ((double) VALUE_UNIT * n);
+    }
+    
+    private int mostVisitedChild(int node) {
+        if (node < 0 || states.get(node) != EXPANDED) {
+            return -1;
+        }
+        int best = -1;
+        int first = firstChild[node];
+        for (int child = first; child < first + childCount[node]; child++) {
+            if (best < 0 || visits.get(child) > visits.get(best)
+                || (visits.get(child) == visits.get(best) && winRate(child) > winRate(best))) {
+                best = child;
+            }
+        }
+        return best;
+    }
+    
+    private int[] principalVariation() {
+        int[] line = new int[MoveGenerator.MAX_PLY];
+        int length = 0;
+        for (int node = mostVisitedChild(root); node >= 0 && visits.get(node) > 0; node = mostVisitedChild(node)) {
+            line[length++] = moves[node];
+        }
+        return Arrays.copyOf(line, length);
+    }
+    
+    private static int toScore(double winRate) {
+        double clamped = Math.max(0.001, Math.min(0.999, winRate));
+        return (int) Math.round(SCORE_SCALE * Math.log(clamped / (1 - clamped)));
+    }
+    
+    // The tree under the last searched position: from each node the width most visited
+    // children, depth plies deep. Depths are how far the tree reaches below each node.
+    @Override
+    public SearchTree exportTree(GameBoard position, int width, int depth) {
+        if (root < 0 || position.getHash() != rootHash || position.getMoveCount() != rootMoves.length) {
+            return null;
+        }
+        return new SearchTree(position.getRules().toString(), rootMoves.clone(),
+            exportNode(root, Math.min(width, SearchTree.MAX_WIDTH), depth));
+    }
+    
+    private SearchTree.Node exportNode(int node, int width, int depth) {
+        int score = toScore(1 - winRate(node));
+        int height = Math.min(255, height(node));
+        int cell = node == root ? TranspositionTable.NO_MOVE : moves[node];
+        if (depth == 0 || states.get(node) != EXPANDED) {
+            return new SearchTree.Node(cell, score, height, TranspositionTable.EXACT, new SearchTree.Node[0]);
+        }
+        int first = firstChild[node];
+        long[] ranked = new long[childCount[node]];
+        int found = 0;
+        for (int child = first; child < first + childCount[node]; child++) {
+            if (visits.get(child) > 0) {
+                ranked[found++] = (long) visits.get(child) << 32 | child;
+            }
+        }
+        Arrays.sort(ranked, 0, found);
+        SearchTree.Node[] children = new SearchTree.Node[Math.min(width, found)];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = exportNode((int) ranked[found - 1 - i], width, depth - 1);
+        }
+        return new SearchTree.Node(cell, score, height, TranspositionTable.EXACT, children);
+    }
+    
+    private int height(int node) {
+        if (states.get(node) != EXPANDED) {
+            return 0;
+        }
+        int height = 0;
+        int first = firstChild[node];
+        for (int child = first; child < first + childCount[node]; child++) {
+            if (visits.get(child) > 0) {
+                height = Math.max(height, 1 + height(child));
+            }
+        }
+        return height;
+    }
+    
+    @Override
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    @Override
+    public void setMonitor(SearchMonitor monitor) {
+        this.monitor = monitor;
+    }
+    
+    @Override
+    public void setEvaluator(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+    
+    @Override
+    public void newGame() {
+        root = -1;
+        rootMoves = new int[0];
+        solver.clear();
+    }
+    
+    public int getThreadCount() {
+        return workers.length;
+    }
+    
+    @Override
+    public void close() {
+        stopPondering(null);
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+    
+    @Override
+    public SearchStats getLastStats() {
+        return lastStats;
+    }
+    
+    // Simulations, which is what nodes count for this engine
+    public long getNodeCount() {
+        return lastStats.getNodes();
+    }
+    
+    public double getThinkingTime() {
+        return lastStats.getSeconds();
+    }
+    
+    private class Worker {
+        private final int id;
+        private final MoveGenerator expansion = new MoveGenerator(EXPANSION_WIDTH, null);
+        private final MoveGenerator rollout;
+        private final SplittableRandom random;
+        private final SearchStats stats = new SearchStats();
+        private final int[] path = new int[MoveGenerator.MAX_PLY];
+        private GameBoard board;
+        private SearchMonitor monitor;
+        
+        Worker(int id) {
+            this.id = id;
+            this.random = new SplittableRandom(id * 0x9E3779B97F4A7C15L + 1);
+            this.rollout = new MoveGenerator(ROLLOUT_WIDTH, null);
+        }
+        
+        void prepare(GameBoard original) {
+            board = new GameBoard(original);
+            if (evaluator != null) {
+                board.setEvaluator(evaluator.copy());
+            }
+            stats.reset();
+            expansion.newSearch();
+            rollout.newSearch();
+        }
+        
+        void simulateUntilStopped() {
+            long simulations = 0;
+            while (!stopped) {
+                simulate();
+                if (++simulations % CLOCK_CHECK_INTERVAL == 0) {
+                    long now = System.nanoTime();
+                    if (now >= deadline) {
+                        stopped = true;
+                    }
+                    // Nothing to weigh up when there is a single sensible move, or none
+                    if (id == 0 && (states.get(root) == LOST || states.get(root) == EXPANDED && childCount[root] == 1)) {
+                        stopped = true;
+                    }
+                    if (monitor != null && monitor.isDue(now)) {
+                        int best = mostVisitedChild(root);
+                        publish(best < 0 ? 0 : toScore(winRate(best)), principalVariation(), false);
+                    }
+                }
+            }
+        }
+        
+        // One walk down the tree, one rollout and the result carried back up
+        private void simulate() {
+            int node = root;
+            int depth = 0;
+            int player = board.getCurrentPlayer();
+            inFlight.incrementAndGet(node);
+            path[depth++] = node;
+            double result;
+            while (true) {
+                if (board.getState() != GameBoard.GameState.PLAYING) {
+                    result = outcome(player);
+                    break;
+                }
+                int state = states.get(node);
+                // Finished visits only, so this one is the next and in-flight walks do not count
+                if (state == LEAF && visits.get(node) >= EXPANSION_VISITS - 1
+                    && depth + ROLLOUT_PLIES < MoveGenerator.MAX_PLY - 1 && states.compareAndSet(node, LEAF, EXPANDING)) {
+                    state = expand(node, depth);
+                }
+                if (state == LOST) {
+                    result = 0;
+                    break;
+                }
+                if (state != EXPANDED) {
+                    result = rollout(player, depth);
+                    break;
+                }
+                node = select(node);
+                inFlight.incrementAndGet(node);
+                path[depth++] = node;
+                board.makeMove(moves[node]);
+                player = 1 - player;
+                if (depth > stats.maxPly) {
+                    stats.maxPly = depth;
+                }
+            }
+            
+            // Each node scores for the side that played into it, which is not the side to move there
+            for (int i = depth - 1; i >= 0; i--) {
+                if (i > 0) {
+                    board.unmakeMove();
+                }
+                int n = path[i];
+                values.addAndGet(n, Math.round((1 - result) * VALUE_UNIT));
+                visits.incrementAndGet(n);
+                inFlight.decrementAndGet(n);
+                result = 1 - result;
+            }
+            stats.nodes++;
+        }
+        
+        private int select(int node) {
+            int first = firstChild[node];
+            int last = first + childCount[node];
+            int parentVisits = visits.get(node) + VIRTUAL_LOSS * inFlight.get(node);
+            double explore = EXPLORATION * Math.sqrt(parentVisits);
+            double firstPlay = 1 - winRate(node) - FIRST_PLAY_REDUCTION;
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < last; child++) {
+                // Other threads' walks below the child count as losses until they come back
+                int n = visits.get(child) + VIRTUAL_LOSS * inFlight.get(child);
+                double q = n == 0 ? firstPlay : values.get(child) / ((double) VALUE_UNIT * n);
+                double value = q + explore * priors[child] / (1 + n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+        
+        // Children from the move generator's best candidates, prior by rank. A win on the board
+        // is the only child; against the opponent's win only blocks and captures are, and with
+        // none of those left the node is lost. A drawn board never gets here, getState() has it.
+        private int expand(int node, int ply) {
+            int count = expansion.generate(board, ply, TranspositionTable.NO_MOVE);
+            int[] list = expansion.moves(ply);
+            int player = board.getCurrentPlayer();
+            int opponent = 1 - player;
+            int kept = 0;
+            boolean threatened = false;
+            for (int i = 0; i < count; i++) {
+                int cell = list[i];
+                if (board.isWinningMove(cell, player)) {
+                    list[0] = cell;
+                    kept = 1;
+                    threatened = false;
+                    break;
+                }
+                threatened |= board.isWinningMove(cell, opponent);
+                if (board.isLegalMove(cell)) {
+                    list[kept++] = cell;
+                }
+            }
+            if (threatened) {
+                int answers = 0;
+                for (int i = 0; i < kept; i++) {
+                    int cell = list[i];
+                    if (board.isWinningMove(cell, opponent) || capturesAt(cell, player)) {
+                        list[answers++] = cell;
+                    }
+                }
+                kept = answers;
+                if (kept == 0) {
+                    states.set(node, LOST);
+                    return LOST;
+                }
+            }
+            if (kept == 0) {
+                states.set(node, FULL);
+                return FULL;
+            }
+            
+            int first = allocate(kept);
+            if (first < 0) {
+                states.set(node, FULL);
+                return FULL;
+            }
+            double total = 0;
+            for (int i = 0; i < kept; i++) {
+                total += 1.0 / (i + 2);
+            }
+            for (int i = 0; i < kept; i++) {
+                int child = first + i;
+                moves[child] = (short) list[i];
+                priors[child] = (float) (1.0 / (i + 2) / total);
+                clear(child);
+            }
+            firstChild[node] = first;
+            childCount[node] = (short) kept;
+            // The volatile store publishes the block to the other threads
+            states.set(node, EXPANDED);
+            return EXPANDED;
+        }
+        
+        private boolean capturesAt(int cell, int player) {
+            for (int dir = 0; dir < 4; dir++) {
+                int flags = board.ruleFlags(player, board.windowKey(dir, cell));
+                if ((flags & (RuleTables.CAPTURE_FORWARD | RuleTables.CAPTURE_BACKWARD)) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // A few plies of the generator's best moves, mostly the very best, then the evaluator;
+        // the win chance is for player, the side to move at the leaf
+        private double rollout(int player, int ply) {
+            int played = 0;
+            while (played < ROLLOUT_PLIES && board.getState() == GameBoard.GameState.PLAYING) {
+                int count = rollout.generate(board, ply + played, TranspositionTable.NO_MOVE);
+                int[] list = rollout.moves(ply + played);
+                int pick = random.nextBoolean() ? 0 : random.nextInt(count);
+                int cell = TranspositionTable.NO_MOVE;
+                for (int i = 0; i < count && cell == TranspositionTable.NO_MOVE; i++) {
+                    int candidate = list[(pick + i) % count];
+                    if (board.isLegalMove(candidate)) {
+                        cell = candidate;
+                    }
+                }
+                if (cell == TranspositionTable.NO_MOVE) {
+                    break;
+                }
+                board.makeMove(cell);
+                played++;
+            }
+            double result = board.getState() == GameBoard.GameState.PLAYING
+                ? 1 / (1 + Math.exp(-board.evaluate(player) / SCORE_SCALE))
+                : outcome(player);
+            for (int i = 0; i < played; i++) {
+                board.unmakeMove();
+            }
+            if (ply + played > stats.maxPly) {
+                stats.maxPly = ply + played;
+            }
+            return result;
+        }
+        
+        private double outcome(int player) {
+            GameBoard.GameState state = board.getState();
+            if (state == GameBoard.GameState.DRAW) {
+                return 0.5;
+            }
+            return (state == GameBoard.GameState.BLACK_WINS) == (player == 0) ? 1 : 0;
+        }
+        
+        // Root children by visits, with their win chances as scores
+        void publish(int score, int[] line, boolean finished) {
+            int node = root;
+            int size = 0;
+            long[] ranked = new long[0];
+            if (node >= 0 && states.get(node) == EXPANDED) {
+                int first = firstChild[node];
+                ranked = new long[childCount[node]];
+                for (int child = first; child < first + childCount[node]; child++) {
+                    if (visits.get(child) > 0) {
+                        ranked[size++] = (long) visits.get(child) << 32 | child;
+                    }
+                }
+                Arrays.sort(ranked, 0, size);
+            }
+            int[] cells = new int[size];
+            int[] scores = new int[size];
+            byte[] bounds = new byte[size];
+            long[] nodes = new long[size];
+            for (int i = 0; i < size; i++) {
+                int child = (int) ranked[size - 1 - i];
+                cells[i] = moves[child];
+                scores[i] = toScore(winRate(child));
+                bounds[i] = TranspositionTable.EXACT;
+                nodes[i] = visits.get(child);
+            }
+            long now = System.nanoTime();
+            monitor.publish(new SearchView(board.getMoveCount(), board.getCurrentPlayer(), line.length,
+                line.length, score, now - startThinkTime, finished, cells, scores, bounds, nodes, line), now);
+        }
+    }
+}
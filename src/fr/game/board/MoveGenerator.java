@@ -0,0 +1,162 @@
+package fr.game.board;
+
+import java.util.Random;
+
+public class MoveGenerator {
+    static final int MAX_PLY = 128;
+    // Moves worth at least this much make or stop a four and are never cut by the beam
+    static final int FORCING_SCORE = 2000;
+    private static final int KILLER_SCORE = 300;
+    private static final int HISTORY_CAP = 256;
+    private static final int NOISE = 64;
+    
+    // What a stone on an empty cell is worth to each colour along one line, keyed by GameBoard.windowKey;
+    // the first index is 1 when the rules have captures
+    private static final int[][][] GAIN = new int[2][2][1 << 16];
+    
+    static {
+        GAIN[0] = buildGain(false);
+        GAIN[1] = buildGain(true);
+    }
+    
+    private static int[][] buildGain(boolean captures) {
+        int[][] gains = new int[2][1 << 16];
+        // Tuned evaluation weights would move the gains around FORCING_SCORE, so ordering keeps its own
+        int[] weights = PatternEvaluator.BUILT_IN_WEIGHTS;
+        int[] cells = new int[9];
+        for (int key = 0; key < 1 << 16; key++) {
+            for (int i = 0; i < 4; i++) {
+                cells[i] = (key >>> (2 * i)) & 3;
+                cells[5 + i] = (key >>> (8 + 2 * i)) & 3;
+            }
+            for (int player = 0; player < 2; player++) {
+                int own = player + 1;
+                int enemy = 2 - player;
+                int gain = 0;
+                for (int start = 0; start < 4; start++) {
+                    cells[4] = 0;
+                    int before = PatternEvaluator.WINDOW_SHAPES[player][pack(cells, start)];
+                    cells[4] = own;
+                    int after = PatternEvaluator.WINDOW_SHAPES[player][pack(cells, start)];
+                    gain += PatternEvaluator.shapeScore(after, weights, captures)
+                        - PatternEvaluator.shapeScore(before, weights, captures);
+                }
+                cells[4] = 0;
+                if (captures && cells[5] == enemy && cells[6] == enemy && cells[7] == own) {
+                    gain += 2 * weights[PatternEvaluator.CAPTURE];
+                }
+                if (captures && cells[3] == enemy && cells[2] == enemy && cells[1] == own) {
+                    gain += 2 * weights[PatternEvaluator.CAPTURE];
+                }
+                gains[player][key] = gain;
+            }
+        }
+        return gains;
+    }
+    
+    private final int beam;
+    private final Random noise;
+    private final int[][] moves = new int[MAX_PLY][GameBoard.CELL_COUNT];
+    private final int[][] scores = new int[MAX_PLY][GameBoard.CELL_COUNT];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] history = new int[2][GameBoard.CELL_COUNT];
+    
+    // A noise source perturbs the ordering slightly, which keeps helper threads off the main line
+    public MoveGenerator(int beam, Random noise) {
+        this.beam = beam;
+        this.noise = noise;
+    }
+    
+    public void newSearch() {
+        for (int[] pair : killers) {
+            pair[0] = TranspositionTable.NO_MOVE;
+            pair[1] = TranspositionTable.NO_MOVE;
+        }
+        for (int[] scoresByCell : history) {
+            for (int cell = 0; cell < scoresByCell.length; cell++) {
+                scoresByCell[cell] >>= 1;
+            }
+        }
+    }
+    
+    public int[] moves(int ply) {
+        return moves[ply];
+    }
+    
+    // Fills moves(ply) with the strongest candidates first and returns how many to search
+    public int generate(GameBoard board, int ply, int hashMove) {
+        int[] list = moves[ply];
+        int[] score = scores[ply];
+        int count = board.collectCandidates(list);
+        
+        // If no pieces on board, start at the center
+        if (count == 0) {
+            list[0] = board.getRules().getCentre();
+            return 1;
+        }
+        
+        int player = board.getCurrentPlayer();
+        int opponent = 1 - player;
+        int[][] gain = GAIN[board.getRules().captures ? 1 : 0];
+        int[] killer = killers[ply];
+        for (int i = 0; i < count; i++) {
+            int cell = list[i];
+            if (cell == hashMove) {
+                score[i] = Integer.MAX_VALUE;
+                continue;
+            }
+            
+            int value = 0;
+            for (int dir = 0; dir < 4; dir++) {
+                int key = board.windowKey(dir, cell);
+                value += gain[player][key] + (gain[opponent][key] * 7 >> 3);
+            }
+            value += Math.min(history[player][cell], HISTORY_CAP);
+            if (cell == killer[0] || cell == killer[1]) {
+                value += KILLER_SCORE;
+            }
+            if (noise != null) {
+                value += noise.nextInt(NOISE);
+            }
+            score[i] = value;
+        }
+        
+        // Selection-sort only as far as the beam, plus any forcing moves beyond it
+        int kept = 0;
+        for (; kept < count; kept++) {
+            int best = kept;
+            for (int j = kept + 1; j < count; j++) {
+                if (score[j] > score[best]) {
+                    best = j;
+                }
+            }
+            if (kept >= beam && score[best] < FORCING_SCORE) {
+                break;
+            }
+            int cell = list[best];
+            list[best] = list[kept];
+            list[kept] = cell;
+            int value = score[best];
+            score[best] = score[kept];
+            score[kept] = value;
+        }
+        return kept;
+    }
+    
+    public void recordCutoff(int ply, int player, int cell, int depth) {
+        int[] killer = killers[ply];
+        if (killer[0] != cell) {
+            killer[1] = killer[0];
+            killer[0] = cell;
+        }
+        history[player][cell] += depth * depth;
+    }
+    
+    private static int pack(int[] cells, int start) {
+        int code = 0;
+        for (int i = 0; i < 6; i++) {
+            code |= cells[start + i] << (2 * i);
+        }
+        return code;
+    }
+}
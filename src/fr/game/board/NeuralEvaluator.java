@@ -0,0 +1,85 @@
+package fr.game.board;
+
+// The pattern score plus a small network's correction to it. The network's first layer is kept
+// as one running sum per side that every stone placed or taken off adds or subtracts a row
+// from, so a leaf only pays for the output layer. On boards with other rules than the network
+// was trained for only the pattern score is used.
+public class NeuralEvaluator implements BoardEvaluator {
+    private final NeuralNetwork network;
+    private final PatternEvaluator patterns;
+    // First layer sums from black's and from white's point of view
+    private final short[][] accumulators;
+    private boolean active;
+    
+    public NeuralEvaluator(NeuralNetwork network) {
+        this(network, new PatternEvaluator(), new short[2][network.hidden]);
+    }
+    
+    private NeuralEvaluator(NeuralNetwork network, PatternEvaluator patterns, short[][] accumulators) {
+        this.network = network;
+        this.patterns = patterns;
+        this.accumulators = accumulators;
+    }
+    
+    @Override
+    public void reset(GameBoard board) {
+        patterns.reset(board);
+        active = network.rules.equals(board.getRules().toString());
+        for (short[] accumulator : accumulators) {
+            System.arraycopy(network.inputBias, 0, accumulator, 0, network.hidden);
+        }
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            GameBoard.Stone stone = board.getStone(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE);
+            if (stone != GameBoard.Stone.EMPTY) {
+                update(cell, stone == GameBoard.Stone.BLACK ? 0 : 1, 1);
+            }
+        }
+    }
+    
+    @Override
+    public void onAdd(GameBoard board, int cell, int player) {
+        patterns.onAdd(board, cell, player);
+        update(cell, player, 1);
+    }
+    
+    @Override
+    public void onRemove(GameBoard board, int cell, int player) {
+        patterns.onRemove(board, cell, player);
+        update(cell, player, -1);
+    }
+    
+    private void update(int cell, int player, int sign) {
+        short[] weights = network.inputWeights;
+        int n = network.hidden;
+        for (int perspective = 0; perspective < 2; perspective++) {
+            short[] accumulator = accumulators[perspective];
+            int row = NeuralNetwork.feature(perspective, player, cell) * n;
+            if (sign > 0) {
+                for (int i = 0; i < n; i++) {
+                    accumulator[i] += weights[row + i];
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    accumulator[i] -= weights[row + i];
+                }
+            }
+        }
+    }
+    
+    @Override
+    public int evaluate(GameBoard board, int player) {
+        int score = patterns.evaluate(board, player);
+        if (!active) {
+            return score;
+        }
+        return score + network.evaluate(accumulators[player], accumulators[1 - player]);
+    }
+    
+    @Override
+    public BoardEvaluator copy() {
+        NeuralEvaluator copy = new NeuralEvaluator(network, (PatternEvaluator) patterns.copy(),
+            new short[][] {accumulators[0].clone(), accumulators[1].clone()});
+        copy.active = active;
+        return copy;
+    }
+}
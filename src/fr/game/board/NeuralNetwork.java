@@ -0,0 +1,143 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Weights of the neural evaluator in the fixed point form it runs on. The first layer has one
+// row per stone feature, an own or an enemy stone on one cell as seen by one side, so a move
+// only adds or subtracts a row. Its sums are clipped to [0, QA] and fed to a single output
+// together with the other side's. The file is a header and then every weight big-endian.
+// Train one with: make train ARGS="--in games.gmr"
+public class NeuralNetwork {
+    public static final Path DEFAULT_PATH = Paths.get("eval.nnue");
+    private static final int MAGIC = 0x474D4E4E;
+    private static final int VERSION = 1;
+    static final int FEATURES = 2 * GameBoard.CELL_COUNT;
+    static final int MAX_HIDDEN = 256;
+    // First layer values are fixed point with QA for 1.0, output weights with QB
+    static final int QA = 255;
+    static final int QB = 64;
+    
+    // Only applied on boards with these rules, as RuleSet.toString() writes them
+    final String rules;
+    final int hidden;
+    // Evaluation points for an output of 1.0
+    final int outputScale;
+    // FEATURES rows of hidden values each
+    final short[] inputWeights;
+    final short[] inputBias;
+    // The side to move's half first, then the opponent's
+    final short[] outputWeights;
+    final int outputBias;
+    
+    NeuralNetwork(String rules, int hidden, int outputScale, short[] inputWeights, short[] inputBias,
+                  short[] outputWeights, int outputBias) {
+        this.rules = rules;
+        this.hidden = hidden;
+        this.outputScale = outputScale;
+        this.inputWeights = inputWeights;
+        this.inputBias = inputBias;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+    
+    // The row of a stone of this player on this cell, from the perspective side's point of view
+    static int feature(int perspective, int player, int cell) {
+        return (player == perspective ? 0 : GameBoard.CELL_COUNT) + cell;
+    }
+    
+    // Small random weights, for measuring the cost of the evaluator without a trained file
+    static NeuralNetwork random(RuleSet rules, int hidden, long seed) {
+        Random random = new Random(seed);
+        short[] inputWeights = new short[FEATURES * hidden];
+        for (int i = 0; i < inputWeights.length; i++) {
+            inputWeights[i] = (short) (random.nextInt(33) - 16);
+        }
+        short[] outputWeights = new short[2 * hidden];
+        for (int i = 0; i < outputWeights.length; i++) {
+            outputWeights[i] = (short) (random.nextInt(129) - 64);
+        }
+        return new NeuralNetwork(rules.toString(), hidden, 1000, inputWeights, new short[hidden], outputWeights, 0);
+    }
+    
+    public String getRules() {
+        return rules;
+    }
+    
+    public int getHidden() {
+        return hidden;
+    }
+    
+    // The output in evaluation points for the two clipped accumulators. Both loops are plain
+    // multiply-adds over arrays, which the JIT turns into vector instructions where it can.
+    int evaluate(short[] own, short[] enemy) {
+        short[] weights = outputWeights;
+        int n = hidden;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            int value = own[i];
+            value = value < 0 ? 0 : value > QA ? QA : value;
+            sum += value * weights[i];
+        }
+        for (int i = 0; i < n; i++) {
+            int value = enemy[i];
+            value = value < 0 ? 0 : value > QA ? QA : value;
+            sum += value * weights[n + i];
+        }
+        return (int) ((long) (sum + outputBias) * outputScale / (QA * QB));
+    }
+    
+    public void write(Path path) throws IOException {
+        byte[] name = rules.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(20 + name.length
+            + 2 * (inputWeights.length + inputBias.length + outputWeights.length));
+        out.putInt(MAGIC).putInt(VERSION).putShort((short) name.length).put(name)
+            .putShort((short) hidden).putInt(outputScale).putInt(outputBias);
+        out.asShortBuffer().put(inputWeights).put(inputBias).put(outputWeights);
+        Files.write(path, out.array());
+    }
+    
+    public static NeuralNetwork read(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("not a network file");
+            }
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            int hidden = in.getShort() & 0xFFFF;
+            if (hidden == 0 || hidden > MAX_HIDDEN) {
+                throw new IOException("unsupported layer size " + hidden);
+            }
+            int outputScale = in.getInt();
+            int outputBias = in.getInt();
+            short[] inputWeights = new short[FEATURES * hidden];
+            short[] inputBias = new short[hidden];
+            short[] outputWeights = new short[2 * hidden];
+            in.asShortBuffer().get(inputWeights).get(inputBias).get(outputWeights);
+            return new NeuralNetwork(new String(name, StandardCharsets.UTF_8), hidden, outputScale,
+                inputWeights, inputBias, outputWeights, outputBias);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated network file");
+        }
+    }
+    
+    // The network next to the game if there is one; the pattern evaluator alone is fine too
+    public static NeuralNetwork openDefault() {
+        if (!Files.isRegularFile(DEFAULT_PATH)) {
+            return null;
+        }
+        try {
+            return read(DEFAULT_PATH);
+        } catch (IOException e) {
+            System.err.println("Ignoring network " + DEFAULT_PATH + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
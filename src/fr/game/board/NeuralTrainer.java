@@ -0,0 +1,373 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Fits the neural evaluator's network to recorded games, on the CPU and in plain floats.
+// Every position of a finished game is a sample whose target is the result for the side to
+// move; the pattern score plus the network output goes through a sigmoid and the squared error
+// is minimised with Adam. Each sample is seen in a random one of the board's eight symmetries.
+// One game in ten is kept aside to check the network is learning more than the games.
+// Run with: make train ARGS="--in games.gmr [--out eval.nnue --hidden 32 --epochs 20 --rules ninuki]"
+// Games to learn from come from: make tournament ARGS="--a 64:5:30 --b 64:5:30 --records games.gmr"
+public class NeuralTrainer {
+    // The first moves come from random openings and say little about either side
+    private static final int MIN_PLY = 6;
+    private static final int BATCH = 256;
+    private static final int VALIDATION_EVERY = 10;
+    // Keeps every first layer sum inside a short once rounded, even on a full board
+    private static final float INPUT_LIMIT = 0.25f;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+    
+    private final RuleSet rules;
+    private final int hidden;
+    private final int outputScale;
+    private final double rate;
+    private final Random random;
+    // Maps scores to win chances: sigmoid(score / scale)
+    private double scale;
+    private final float[] inputWeights;
+    private final float[] inputBias;
+    private final float[] outputWeights;
+    private float outputBias;
+    private final float[] gradient;
+    private final float[] inner;
+    private final double[] moment;
+    private final double[] variance;
+    private long steps;
+    
+    public NeuralTrainer(RuleSet rules, int hidden, int outputScale, double rate, long seed) {
+        this.rules = rules;
+        this.hidden = hidden;
+        this.outputScale = outputScale;
+        this.rate = rate;
+        this.random = new Random(seed);
+        this.inputWeights = new float[NeuralNetwork.FEATURES * hidden];
+        this.inputBias = new float[hidden];
+        this.outputWeights = new float[2 * hidden];
+        for (int i = 0; i < inputWeights.length; i++) {
+            inputWeights[i] = (float) (random.nextGaussian() * 0.01);
+        }
+        for (int i = 0; i < hidden; i++) {
+            inputBias[i] = 0.1f;
+        }
+        for (int i = 0; i < outputWeights.length; i++) {
+            outputWeights[i] = (float) (random.nextGaussian() * 0.01);
+        }
+        int parameters = inputWeights.length + inputBias.length + outputWeights.length + 1;
+        this.gradient = new float[parameters];
+        this.inner = new float[hidden];
+        this.moment = new double[parameters];
+        this.variance = new double[parameters];
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Path in = null;
+        Path out = NeuralNetwork.DEFAULT_PATH;
+        RuleSet rules = RuleSet.NINUKI;
+        int hidden = 32;
+        int epochs = 20;
+        double rate = 0.001;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--in":
+                    in = Paths.get(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--rules":
+                    rules = RuleSet.forName(args[i + 1]);
+                    break;
+                case "--hidden":
+                    hidden = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--epochs":
+                    epochs = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (in == null) {
+            System.err.println("Usage: NeuralTrainer --in games" + GameRecord.EXTENSION + " [--out file --hidden n --epochs n]");
+            return;
+        }
+        if (hidden < 1 || hidden > NeuralNetwork.MAX_HIDDEN) {
+            System.err.println("--hidden must be between 1 and " + NeuralNetwork.MAX_HIDDEN);
+            return;
+        }
+        
+        List<Sample> training = new ArrayList<>();
+        List<Sample> validation = new ArrayList<>();
+        loadSamples(in, rules, training, validation);
+        if (training.isEmpty() || validation.isEmpty()) {
+            System.err.println("Not enough finished games in " + in);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%d training and %d validation positions%n", training.size(), validation.size());
+        
+        NeuralTrainer trainer = new NeuralTrainer(rules, hidden, 1000, rate, seed);
+        trainer.fitScale(training);
+        System.out.printf(Locale.ROOT, "patterns alone: scale %.0f  loss %.5f  validation %.5f%n",
+            trainer.scale, trainer.baselineLoss(training), trainer.baselineLoss(validation));
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            double loss = trainer.train(training);
+            System.out.printf(Locale.ROOT, "epoch %d  loss %.5f  validation %.5f%n",
+                epoch, loss, trainer.loss(validation));
+        }
+        NeuralNetwork network = trainer.quantize();
+        System.out.printf(Locale.ROOT, "quantized validation %.5f%n", trainer.quantizedLoss(network, validation));
+        network.write(out);
+        System.out.println("Wrote " + out);
+    }
+    
+    // One position: its stones as cell | colour << 9, the side to move, the pattern score
+    // from that side's point of view and the game's result for it
+    static class Sample {
+        final short[] stones;
+        final int player;
+        final int patternScore;
+        final float result;
+        
+        Sample(short[] stones, int player, int patternScore, float result) {
+            this.stones = stones;
+            this.player = player;
+            this.patternScore = patternScore;
+            this.result = result;
+        }
+    }
+    
+    // Unfinished games have no result to learn from and are skipped
+    static void loadSamples(Path in, RuleSet rules, List<Sample> training, List<Sample> validation) throws IOException {
+        int games = 0;
+        try (GameRecordReader reader = GameRecordReader.open(in)) {
+            for (GameRecord record = reader.read(); record != null; record = reader.read()) {
+                GameBoard.GameState result = record.getResult();
+                if (result == GameBoard.GameState.PLAYING) {
+                    continue;
+                }
+                List<Sample> samples = games++ % VALIDATION_EVERY == VALIDATION_EVERY - 1 ? validation : training;
+                GameBoard board = new GameBoard(rules);
+                for (int ply = 0; ply < record.getMoveCount(); ply++) {
+                    if (ply >= MIN_PLY) {
+                        samples.add(sample(board, result));
+                    }
+                    board.makeMove(record.getMove(ply));
+                }
+            }
+        }
+    }
+    
+    private static Sample sample(GameBoard board, GameBoard.GameState result) {
+        short[] stones = new short[GameBoard.CELL_COUNT];
+        int count = 0;
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            GameBoard.Stone stone = board.getStone(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE);
+            if (stone != GameBoard.Stone.EMPTY) {
+                stones[count++] = (short) (cell | (stone == GameBoard.Stone.BLACK ? 0 : 1) << 9);
+            }
+        }
+        int player = board.getCurrentPlayer();
+        float outcome = result == GameBoard.GameState.DRAW ? 0.5f
+            : (result == GameBoard.GameState.BLACK_WINS) == (player == 0) ? 1f : 0f;
+        return new Sample(Arrays.copyOf(stones, count), player, board.evaluate(player), outcome);
+    }
+    
+    // The sigmoid scale that lets the pattern score alone predict the results best
+    void fitScale(List<Sample> samples) {
+        double best = Double.MAX_VALUE;
+        double bestScale = 1000;
+        for (double candidate = 100; candidate <= 20000; candidate *= 1.1) {
+            scale = candidate;
+            double loss = baselineLoss(samples);
+            if (loss < best) {
+                best = loss;
+                bestScale = candidate;
+            }
+        }
+        scale = bestScale;
+    }
+    
+    double baselineLoss(List<Sample> samples) {
+        double total = 0;
+        for (Sample sample : samples) {
+            double error = sigmoid(sample.patternScore / scale) - sample.result;
+            total += error * error;
+        }
+        return total / samples.size();
+    }
+    
+    double loss(List<Sample> samples) {
+        float[][] sums = new float[2][hidden];
+        double total = 0;
+        for (Sample sample : samples) {
+            double error = sigmoid((sample.patternScore + outputScale * forward(sample, 0, sums)) / scale) - sample.result;
+            total += error * error;
+        }
+        return total / samples.size();
+    }
+    
+    // One pass over the samples in random order; returns the mean loss seen on the way
+    double train(List<Sample> samples) {
+        int[] order = new int[samples.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        
+        float[][] sums = new float[2][hidden];
+        double total = 0;
+        for (int start = 0; start < order.length; start += BATCH) {
+            int end = Math.min(order.length, start + BATCH);
+            Arrays.fill(gradient, 0);
+            for (int i = start; i < end; i++) {
+                Sample sample = samples.get(order[i]);
+                int symmetry = random.nextInt(GameBoard.SYMMETRIES);
+                double predicted = sigmoid((sample.patternScore + outputScale * forward(sample, symmetry, sums)) / scale);
+                double error = predicted - sample.result;
+                total += error * error;
+                backward(sample, symmetry, sums, (float) (2 * error * predicted * (1 - predicted) * outputScale / scale));
+            }
+            step(end - start);
+        }
+        return total / order.length;
+    }
+    
+    // Fills the first layer sums for the side to move and its opponent, returns the output
+    private float forward(Sample sample, int symmetry, float[][] sums) {
+        int[] image = rules.symmetry[symmetry];
+        for (int side = 0; side < 2; side++) {
+            int perspective = side == 0 ? sample.player : 1 - sample.player;
+            float[] sum = sums[side];
+            System.arraycopy(inputBias, 0, sum, 0, hidden);
+            for (short stone : sample.stones) {
+                int row = NeuralNetwork.feature(perspective, stone >>> 9, image[stone & 0x1FF]) * hidden;
+                for (int i = 0; i < hidden; i++) {
+                    sum[i] += inputWeights[row + i];
+                }
+            }
+        }
+        float output = outputBias;
+        for (int side = 0; side < 2; side++) {
+            for (int i = 0; i < hidden; i++) {
+                output += clip(sums[side][i]) * outputWeights[side * hidden + i];
+            }
+        }
+        return output;
+    }
+    
+    // Gradient layout: input weights, input bias, output weights, output bias
+    private void backward(Sample sample, int symmetry, float[][] sums, float delta) {
+        int[] image = rules.symmetry[symmetry];
+        int biasAt = inputWeights.length;
+        int outputAt = biasAt + hidden;
+        gradient[outputAt + 2 * hidden] += delta;
+        for (int side = 0; side < 2; side++) {
+            int perspective = side == 0 ? sample.player : 1 - sample.player;
+            float[] sum = sums[side];
+            for (int i = 0; i < hidden; i++) {
+                gradient[outputAt + side * hidden + i] += delta * clip(sum[i]);
+                inner[i] = sum[i] > 0 && sum[i] < 1 ? delta * outputWeights[side * hidden + i] : 0;
+                gradient[biasAt + i] += inner[i];
+            }
+            for (short stone : sample.stones) {
+                int row = NeuralNetwork.feature(perspective, stone >>> 9, image[stone & 0x1FF]) * hidden;
+                for (int i = 0; i < hidden; i++) {
+                    gradient[row + i] += inner[i];
+                }
+            }
+        }
+    }
+    
+    private void step(int batchSize) {
+        steps++;
+        double correction1 = 1 - Math.pow(BETA1, steps);
+        double correction2 = 1 - Math.pow(BETA2, steps);
+        int biasAt = inputWeights.length;
+        int outputAt = biasAt + hidden;
+        for (int p = 0; p < gradient.length; p++) {
+            double g = gradient[p] / batchSize;
+            moment[p] = BETA1 * moment[p] + (1 - BETA1) * g;
+            variance[p] = BETA2 * variance[p] + (1 - BETA2) * g * g;
+            float change = (float) (rate * (moment[p] / correction1) / (Math.sqrt(variance[p] / correction2) + EPSILON));
+            if (p < biasAt) {
+                inputWeights[p] = Math.max(-INPUT_LIMIT, Math.min(INPUT_LIMIT, inputWeights[p] - change));
+            } else if (p < outputAt) {
+                inputBias[p - biasAt] = Math.max(-INPUT_LIMIT, Math.min(INPUT_LIMIT, inputBias[p - biasAt] - change));
+            } else if (p < outputAt + 2 * hidden) {
+                outputWeights[p - outputAt] -= change;
+            } else {
+                outputBias -= change;
+            }
+        }
+    }
+    
+    NeuralNetwork quantize() {
+        short[] inputs = new short[inputWeights.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = (short) Math.round(inputWeights[i] * NeuralNetwork.QA);
+        }
+        short[] bias = new short[hidden];
+        for (int i = 0; i < hidden; i++) {
+            bias[i] = (short) Math.round(inputBias[i] * NeuralNetwork.QA);
+        }
+        short[] outputs = new short[outputWeights.length];
+        for (int i = 0; i < outputs.length; i++) {
+            float value = outputWeights[i] * NeuralNetwork.QB;
+            outputs[i] = (short) Math.round(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+        }
+        int outputBiasFixed = Math.round(outputBias * NeuralNetwork.QA * NeuralNetwork.QB);
+        return new NeuralNetwork(rules.toString(), hidden, outputScale, inputs, bias, outputs, outputBiasFixed);
+    }
+    
+    // The same loss with the evaluator the engine will use, as a check on the rounding
+    double quantizedLoss(NeuralNetwork network, List<Sample> samples) {
+        double total = 0;
+        short[][] sums = new short[2][hidden];
+        for (Sample sample : samples) {
+            for (int perspective = 0; perspective < 2; perspective++) {
+                System.arraycopy(network.inputBias, 0, sums[perspective], 0, hidden);
+                for (short stone : sample.stones) {
+                    int row = NeuralNetwork.feature(perspective, stone >>> 9, stone & 0x1FF) * hidden;
+                    for (int i = 0; i < hidden; i++) {
+                        sums[perspective][i] += network.inputWeights[row + i];
+                    }
+                }
+            }
+            int correction = network.evaluate(sums[sample.player], sums[1 - sample.player]);
+            double error = sigmoid((sample.patternScore + correction) / scale) - sample.result;
+            total += error * error;
+        }
+        return total / samples.size();
+    }
+    
+    private static float clip(float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+    
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+}
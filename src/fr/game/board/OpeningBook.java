@@ -0,0 +1,174 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Book moves keyed by the smallest hash over the eight board symmetries, so a position
+// and its rotations or reflections share one record. The file is a header followed by
+// fixed-size records sorted by key, mapped read-only and binary-searched in place.
+public class OpeningBook {
+    public static final Path DEFAULT_PATH = Paths.get("opening.book");
+    private static final int MAGIC = 0x474D424B;
+    private static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    // key (8 bytes), cell in canonical orientation (4 bytes), weight (4 bytes)
+    static final int RECORD_BYTES = 16;
+    
+    private final ByteBuffer buffer;
+    private final int count;
+    
+    private OpeningBook(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not an opening book");
+        }
+        this.count = buffer.getInt(8);
+        if ((long) HEADER_BYTES + (long) count * RECORD_BYTES > buffer.capacity()) {
+            throw new IOException("truncated opening book");
+        }
+        this.buffer = buffer;
+    }
+    
+    public static OpeningBook open(Path path) throws IOException {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(mapped);
+        }
+    }
+    
+    // The book next to the game if there is one; playing on without it is fine
+    public static OpeningBook openDefault() {
+        if (!Files.isRegularFile(DEFAULT_PATH)) {
+            return null;
+        }
+        try {
+            return open(DEFAULT_PATH);
+        } catch (IOException e) {
+            System.err.println("Ignoring opening book " + DEFAULT_PATH + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    // A book move for the side to move, or NO_MOVE. With a random source the choice is
+    // weighted, otherwise the heaviest move is played.
+    public int lookup(GameBoard board, Random random) {
+        int symmetry = canonicalSymmetry(board);
+        long key = board.symmetricHash(symmetry);
+        
+        int first = lowerBound(key);
+        int last = first;
+        long totalWeight = 0;
+        while (last < count && keyAt(last) == key) {
+            totalWeight += weightAt(last);
+            last++;
+        }
+        if (first == last) {
+            return TranspositionTable.NO_MOVE;
+        }
+        
+        int chosen = first;
+        if (random != null && totalWeight > 0) {
+            long pick = (long) (random.nextDouble() * totalWeight);
+            while (chosen < last - 1 && pick >= weightAt(chosen)) {
+                pick -= weightAt(chosen);
+                chosen++;
+            }
+        } else {
+            for (int i = first + 1; i < last; i++) {
+                if (weightAt(i) > weightAt(chosen)) {
+                    chosen = i;
+                }
+            }
+        }
+        return board.transform(GameBoard.inverse(symmetry), cellAt(chosen));
+    }
+    
+    static int canonicalSymmetry(GameBoard board) {
+        int best = 0;
+        long bestKey = board.symmetricHash(0);
+        for (int s = 1; s < GameBoard.SYMMETRIES; s++) {
+            long key = board.symmetricHash(s);
+            if (key < bestKey) {
+                bestKey = key;
+                best = s;
+            }
+        }
+        return best;
+    }
+    
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyAt(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private long keyAt(int index) {
+        return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES);
+    }
+    
+    private int cellAt(int index) {
+        return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES + 8);
+    }
+    
+    private int weightAt(int index) {
+        return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES + 12);
+    }
+    
+    static class Entry {
+        final long key;
+        final int cell;
+        final int weight;
+        
+        Entry(long key, int cell, int weight) {
+            this.key = key;
+            this.cell = cell;
+            this.weight = weight;
+        }
+        
+        // The move as seen from the canonical orientation of the position it is played in
+        static Entry of(GameBoard board, int cell, int weight) {
+            int symmetry = canonicalSymmetry(board);
+            return new Entry(board.symmetricHash(symmetry), board.transform(symmetry, cell), weight);
+        }
+    }
+    
+    static void write(Path path, List<Entry> entries) throws IOException {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong((Entry entry) -> entry.key).thenComparingInt(entry -> -entry.weight));
+        
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + sorted.size() * RECORD_BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(0);
+        for (Entry entry : sorted) {
+            out.putLong(entry.key).putInt(entry.cell).putInt(entry.weight);
+        }
+        out.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+}
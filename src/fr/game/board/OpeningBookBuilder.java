@@ -0,0 +1,114 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Builds the opening book offline: searches every position reachable from the seeds
+// within a few plies, following the engine's choice plus the next best replies.
+// Run with: make book [ARGS="--plies 4 --width 3 --depth 16 --ms 3000"]
+public class OpeningBookBuilder {
+    private static final int BOOK_WEIGHT = 100;
+    
+    // Stones already on the board for each seed, in the order they are played
+    private static final int[][][] SEEDS = {
+        {},
+        {{9, 9}, {10, 10}},
+        {{9, 9}, {10, 9}}
+    };
+    
+    public static void main(String[] args) throws IOException {
+        Path out = OpeningBook.DEFAULT_PATH;
+        int plies = 4;
+        int width = 3;
+        int depth = 16;
+        long millis = 3000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--plies":
+                    plies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--ms":
+                    millis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        
+        List<OpeningBook.Entry> entries = build(new BrainEngine(depth, 8, millis, threads), plies, width);
+        OpeningBook.write(out, entries);
+        System.out.println("Wrote " + entries.size() + " positions to " + out);
+    }
+    
+    static List<OpeningBook.Entry> build(BrainEngine engine, int plies, int width) {
+        Deque<GameBoard> pending = new ArrayDeque<>();
+        Deque<Integer> pliesLeft = new ArrayDeque<>();
+        for (int[][] seed : SEEDS) {
+            GameBoard board = new GameBoard();
+            for (int[] stone : seed) {
+                board.placePiece(stone[0], stone[1]);
+            }
+            pending.add(board);
+            pliesLeft.add(plies);
+        }
+        
+        MoveGenerator generator = new MoveGenerator(width, null);
+        Set<Long> seen = new HashSet<>();
+        List<OpeningBook.Entry> entries = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            GameBoard board = pending.poll();
+            int left = pliesLeft.poll();
+            long key = board.symmetricHash(OpeningBook.canonicalSymmetry(board));
+            if (board.getState() != GameBoard.GameState.PLAYING || !seen.add(key)) {
+                continue;
+            }
+            
+            BrainEngine.Position move = engine.findBestMove(board);
+            if (move == null) {
+                continue;
+            }
+            int cell = move.y * GameBoard.GRID_SIZE + move.x;
+            entries.add(OpeningBook.Entry.of(board, cell, BOOK_WEIGHT));
+            System.out.printf("%5d positions, %d queued: %d,%d at depth %d%n",
+                entries.size(), pending.size(), move.x, move.y, engine.getCompletedDepth());
+            if (left == 0) {
+                continue;
+            }
+            
+            // Branch on the book move and the replies the generator likes next
+            int count = Math.min(width, generator.generate(board, 0, cell));
+            int[] moves = generator.moves(0);
+            for (int i = 0; i < count; i++) {
+                if (!board.isLegalMove(moves[i])) {
+                    continue;
+                }
+                GameBoard child = new GameBoard(board);
+                child.makeMove(moves[i]);
+                pending.add(child);
+                pliesLeft.add(left - 1);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,275 @@
+package fr.game.board;
+
+import java.util.Arrays;
+
+public class PatternEvaluator implements BoardEvaluator {
+    // Shapes a colour can hold inside one six-cell window, weakest first
+    static final int NONE = 0;
+    static final int TWO = 1;
+    static final int OPEN_TWO = 2;
+    static final int THREE = 3;
+    static final int OPEN_THREE = 4;
+    static final int FOUR = 5;
+    static final int OPEN_FOUR = 6;
+    static final int FIVE = 7;
+    
+    // Weight indices after the shapes
+    static final int EXPOSED_PAIR = 8;
+    static final int CAPTURE = 9;
+    static final int CENTRE = 10;
+    static final int WEIGHT_COUNT = 11;
+    
+    static final int[] BUILT_IN_WEIGHTS = {
+        0, 10, 40, 150, 1000, 2500, 20000, 200000, -600, 1000, 2
+    };
+    // Tuned weights next to the game replace the built-in ones
+    static final int[] DEFAULT_WEIGHTS = defaultWeights();
+    
+    private static final int WINDOW = 6;
+    private static final int WINDOW_MASK = (1 << (2 * WINDOW)) - 1;
+    private static final int PAIR_FLAG = 8;
+    
+    // Shape of each colour for every packed window, with PAIR_FLAG set when
+    // the window starts with one of that colour's pairs open to capture
+    static final byte[][] WINDOW_SHAPES = new byte[2][1 << (2 * WINDOW)];
+    
+    // Without captures an exposed pair is no weakness, so those rules get their own scores
+    private static final int[] DEFAULT_SCORES;
+    private static final int[] DEFAULT_QUIET_SCORES;
+    
+    static {
+        int[] cells = new int[WINDOW];
+        for (int code = 0; code <= WINDOW_MASK; code++) {
+            for (int i = 0; i < WINDOW; i++) {
+                cells[i] = (code >>> (2 * i)) & 3;
+            }
+            for (int player = 0; player < 2; player++) {
+                int shape = classify(cells, player + 1);
+                if (isExposedPair(cells, player + 1)) {
+                    shape |= PAIR_FLAG;
+                }
+                WINDOW_SHAPES[player][code] = (byte) shape;
+            }
+        }
+        DEFAULT_SCORES = buildScores(DEFAULT_WEIGHTS, true);
+        DEFAULT_QUIET_SCORES = buildScores(DEFAULT_WEIGHTS, false);
+    }
+    
+    private static int[] defaultWeights() {
+        int[] tuned = EvaluationWeights.openDefault();
+        return tuned != null ? tuned : BUILT_IN_WEIGHTS;
+    }
+    
+    private final int[] weights;
+    // Both follow the rules of the board the evaluator was last reset on
+    private int[] scores;
+    private int[] centreBonus;
+    private boolean captures;
+    // Both totals are black minus white
+    private int patternTotal;
+    private int centreTotal;
+    
+    public PatternEvaluator() {
+        this(RuleSet.NINUKI);
+    }
+    
+    public PatternEvaluator(RuleSet rules) {
+        this(DEFAULT_WEIGHTS, rules.captures ? DEFAULT_SCORES : DEFAULT_QUIET_SCORES, rules);
+    }
+    
+    public PatternEvaluator(int[] weights) {
+        this(weights.clone(), buildScores(weights, true), RuleSet.NINUKI);
+    }
+    
+    private PatternEvaluator(int[] weights, int[] scores, RuleSet rules) {
+        this.weights = weights;
+        this.scores = scores;
+        this.centreBonus = rules.centreBonus;
+        this.captures = rules.captures;
+    }
+    
+    @Override
+    public void reset(GameBoard board) {
+        RuleSet rules = board.getRules();
+        if (rules.captures != captures) {
+            captures = rules.captures;
+            scores = weights == DEFAULT_WEIGHTS
+                ? (captures ? DEFAULT_SCORES : DEFAULT_QUIET_SCORES)
+                : buildScores(weights, captures);
+        }
+        centreBonus = rules.centreBonus;
+        patternTotal = 0;
+        centreTotal = 0;
+        for (int line = 0; line < GameBoard.LINE_COUNT; line++) {
+            long packed = board.getLine(line);
+            int windows = GameBoard.LINE_LENGTH[line] + 2 * GameBoard.LINE_PADDING - WINDOW;
+            for (int start = 0; start <= windows; start++) {
+                patternTotal += scores[(int) (packed >>> (2 * start)) & WINDOW_MASK];
+            }
+        }
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            GameBoard.Stone stone = board.getStone(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE);
+            if (stone == GameBoard.Stone.BLACK) {
+                centreTotal += centreBonus[cell];
+            } else if (stone == GameBoard.Stone.WHITE) {
+                centreTotal -= centreBonus[cell];
+            }
+        }
+    }
+    
+    @Override
+    public void onAdd(GameBoard board, int cell, int player) {
+        patternTotal += lineDelta(board, cell, player);
+        centreTotal += player == 0 ? centreBonus[cell] : -centreBonus[cell];
+    }
+    
+    @Override
+    public void onRemove(GameBoard board, int cell, int player) {
+        patternTotal += lineDelta(board, cell, player);
+        centreTotal -= player == 0 ? centreBonus[cell] : -centreBonus[cell];
+    }
+    
+    // Only the six windows through the cell on each of its four lines change
+    private int lineDelta(GameBoard board, int cell, int player) {
+        long code = player + 1;
+        int delta = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            long before = board.getLine(GameBoard.LINE_INDEX[dir][cell]);
+            int shift = GameBoard.LINE_SHIFT[dir][cell];
+            long after = before ^ (code << shift);
+            for (int start = shift - 2 * (WINDOW - 1); start <= shift; start += 2) {
+                delta += scores[(int) (after >>> start) & WINDOW_MASK]
+                    - scores[(int) (before >>> start) & WINDOW_MASK];
+            }
+        }
+        return delta;
+    }
+    
+    @Override
+    public int evaluate(GameBoard board, int player) {
+        int positional = patternTotal + centreTotal * weights[CENTRE];
+        int captures = (board.getCaptureCount(player) - board.getCaptureCount(1 - player)) * weights[CAPTURE];
+        return (player == 0 ? positional : -positional) + captures;
+    }
+    
+    // What evaluate adds up, one count per weight: evaluate(board, player) is the sum of
+    // weights[k] * features[k] for any weights, under the board's rules
+    static void countFeatures(GameBoard board, int player, int[] features) {
+        Arrays.fill(features, 0);
+        boolean captures = board.getRules().captures;
+        for (int line = 0; line < GameBoard.LINE_COUNT; line++) {
+            long packed = board.getLine(line);
+            int windows = GameBoard.LINE_LENGTH[line] + 2 * GameBoard.LINE_PADDING - WINDOW;
+            for (int start = 0; start <= windows; start++) {
+                int code = (int) (packed >>> (2 * start)) & WINDOW_MASK;
+                for (int side = 0; side < 2; side++) {
+                    int shape = WINDOW_SHAPES[side][code];
+                    int sign = side == player ? 1 : -1;
+                    features[shape & 7] += sign;
+                    if (captures && (shape & PAIR_FLAG) != 0) {
+                        features[EXPOSED_PAIR] += sign;
+                    }
+                }
+            }
+        }
+        int[] centreBonus = board.getRules().centreBonus;
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            GameBoard.Stone stone = board.getStone(cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE);
+            if (stone != GameBoard.Stone.EMPTY) {
+                features[CENTRE] += (stone == GameBoard.Stone.BLACK) == (player == 0) ? centreBonus[cell] : -centreBonus[cell];
+            }
+        }
+        features[CAPTURE] = board.getCaptureCount(player) - board.getCaptureCount(1 - player);
+    }
+    
+    @Override
+    public BoardEvaluator copy() {
+        PatternEvaluator copy = new PatternEvaluator(weights, scores, RuleSet.NINUKI);
+        copy.centreBonus = centreBonus;
+        copy.captures = captures;
+        copy.patternTotal = patternTotal;
+        copy.centreTotal = centreTotal;
+        return copy;
+    }
+    
+    private static int[] buildScores(int[] weights, boolean captures) {
+        int[] scores = new int[WINDOW_MASK + 1];
+        for (int code = 0; code <= WINDOW_MASK; code++) {
+            scores[code] = shapeScore(WINDOW_SHAPES[0][code], weights, captures)
+                - shapeScore(WINDOW_SHAPES[1][code], weights, captures);
+        }
+        return scores;
+    }
+    
+    static int shapeScore(int shape, int[] weights, boolean captures) {
+        int score = weights[shape & 7];
+        if (captures && (shape & PAIR_FLAG) != 0) {
+            score += weights[EXPOSED_PAIR];
+        }
+        return score;
+    }
+    
+    private static int classify(int[] cells, int own) {
+        for (int start = 0; start + 5 <= WINDOW; start++) {
+            if (countOwn(cells, start, 5, own) == 5) {
+                return FIVE;
+            }
+        }
+        
+        // Open shapes need both ends of the window free
+        if (cells[0] == 0 && cells[WINDOW - 1] == 0 && isFree(cells, 1, 4, own)) {
+            int count = countOwn(cells, 1, 4, own);
+            if (count == 4) {
+                return OPEN_FOUR;
+            } else if (count == 3) {
+                return OPEN_THREE;
+            } else if (count == 2) {
+                return OPEN_TWO;
+            }
+        }
+        
+        int best = NONE;
+        for (int start = 0; start + 5 <= WINDOW; start++) {
+            if (!isFree(cells, start, 5, own)) {
+                continue;
+            }
+            int count = countOwn(cells, start, 5, own);
+            if (count == 4) {
+                best = Math.max(best, FOUR);
+            } else if (count == 3) {
+                best = Math.max(best, THREE);
+            } else if (count == 2) {
+                best = Math.max(best, TWO);
+            }
+        }
+        return best;
+    }
+    
+    // A pair flanked by an enemy stone on one side and an empty cell on the other
+    private static boolean isExposedPair(int[] cells, int own) {
+        int enemy = 3 - own;
+        if (cells[1] != own || cells[2] != own) {
+            return false;
+        }
+        return (cells[0] == enemy && cells[3] == 0) || (cells[0] == 0 && cells[3] == enemy);
+    }
+    
+    private static int countOwn(int[] cells, int start, int length, int own) {
+        int count = 0;
+        for (int i = start; i < start + length; i++) {
+            if (cells[i] == own) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static boolean isFree(int[] cells, int start, int length, int own) {
+        for (int i = start; i < start + length; i++) {
+            if (cells[i] != 0 && cells[i] != own) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
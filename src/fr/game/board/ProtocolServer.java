@@ -0,0 +1,270 @@
+package fr.game.board;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Headless entry point: one game over stdin/stdout, or many over a local TCP port
+public class ProtocolServer {
+    private static final int MAX_LINE = 4096;
+    
+    private final EnginePool engines;
+    private final RuleSet rules;
+    private final long turnMillis;
+    
+    public ProtocolServer(EnginePool engines, RuleSet rules, long turnMillis) {
+        this.engines = engines;
+        this.rules = rules;
+        this.turnMillis = turnMillis;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = -1;
+        int poolSize = Runtime.getRuntime().availableProcessors();
+        int threads = 1;
+        long turnMillis = 450;
+        RuleSet rules = RuleSet.NINUKI;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--engines":
+                    poolSize = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--turn-ms":
+                    turnMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--rules":
+                    rules = RuleSet.forName(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        
+        if (port < 0) {
+            poolSize = 1;
+        }
+        ProtocolServer server = new ProtocolServer(new EnginePool(poolSize, 12, 5, threads), rules, turnMillis);
+        if (port < 0) {
+            server.serveConsole();
+        } else {
+            server.serveSocket(port, poolSize);
+        }
+    }
+    
+    public void serveConsole() throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintStream out = System.out;
+        GameSession session = new GameSession(engines, rules, turnMillis);
+        String line;
+        while (!session.isEnded() && (line = in.readLine()) != null) {
+            String reply = session.handle(line);
+            if (reply != null) {
+                out.println(reply);
+                out.flush();
+            }
+        }
+    }
+    
+    // The selector thread only moves bytes; commands run on a worker pool, in order per connection
+    public void serveSocket(int port, int workers) throws IOException {
+        ExecutorService commandPool = Executors.newFixedThreadPool(workers);
+        try (Selector selector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = server.accept();
+                        if (channel != null) {
+                            channel.configureBlocking(false);
+                            SelectionKey channelKey = channel.register(selector, SelectionKey.OP_READ);
+                            channelKey.attach(new Connection(channelKey, commandPool));
+                        }
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                }
+            }
+        } finally {
+            commandPool.shutdownNow();
+        }
+    }
+    
+    private class Connection {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final ExecutorService commandPool;
+        private final GameSession session;
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+        private final Queue<String> pendingLines = new ArrayDeque<>();
+        private final Queue<ByteBuffer> pendingReplies = new ArrayDeque<>();
+        private boolean running;
+        private boolean closing;
+        
+        Connection(SelectionKey key, ExecutorService commandPool) {
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+            this.commandPool = commandPool;
+            this.session = new GameSession(engines, rules, turnMillis);
+        }
+        
+        void read() {
+            int read;
+            try {
+                read = channel.read(input);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            
+            input.flip();
+            int start = 0;
+            for (int i = 0; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    byte[] bytes = new byte[i - start];
+                    input.position(start);
+                    input.get(bytes);
+                    enqueue(new String(bytes, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            input.position(start);
+            input.compact();
+            if (!input.hasRemaining()) {
+                reply("ERROR line too long");
+                input.clear();
+            }
+        }
+        
+        private void enqueue(String line) {
+            synchronized (this) {
+                pendingLines.add(line);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            commandPool.execute(this::drain);
+        }
+        
+        private void drain() {
+            while (true) {
+                String line;
+                synchronized (this) {
+                    line = pendingLines.poll();
+                    if (line == null || closing) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    String reply = session.handle(line);
+                    if (reply != null) {
+                        reply(reply);
+                    }
+                    if (session.isEnded()) {
+                        synchronized (this) {
+                            closing = true;
+                        }
+                        requestWrite();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        
+        private void reply(String line) {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            synchronized (this) {
+                pendingReplies.add(bytes);
+            }
+            requestWrite();
+        }
+        
+        // Closing also goes through the write path so queued replies are flushed first
+        private void requestWrite() {
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+            }
+        }
+        
+        void write() {
+            synchronized (this) {
+                try {
+                    while (!pendingReplies.isEmpty()) {
+                        ByteBuffer head = pendingReplies.peek();
+                        channel.write(head);
+                        if (head.hasRemaining()) {
+                            return;
+                        }
+                        pendingReplies.poll();
+                    }
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (closing) {
+                    close();
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+        
+        private void close() {
+            synchronized (this) {
+                closing = true;
+                pendingLines.clear();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to tell a client that is already gone
+            }
+        }
+    }
+}
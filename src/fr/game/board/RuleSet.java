@@ -0,0 +1,143 @@
+package fr.game.board;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// The rules and board size a game is played with. A board smaller than GameBoard.GRID_SIZE
+// is the top-left corner of the full grid with every cell outside it packed into the lines
+// as off-board, so all the line and window machinery stays the same; every table that
+// depends on the rules or the size is built here once per rule set.
+public class RuleSet {
+    static final int MIN_SIZE = 5;
+    
+    // Pente-style Ninuki: captures, ten captured stones win, no double free three
+    public static final RuleSet NINUKI = new RuleSet("ninuki", GameBoard.GRID_SIZE, true, true, false);
+    // Ninuki without the captures
+    public static final RuleSet NO_CAPTURES = new RuleSet("nocapture", GameBoard.GRID_SIZE, false, true, false);
+    // Standard gomoku: exactly five wins, an overline does not
+    public static final RuleSet STANDARD = new RuleSet("standard", 15, false, false, true);
+    // Free-style gomoku: five or more wins, no restriction on either side
+    public static final RuleSet FREESTYLE = new RuleSet("freestyle", 15, false, false, false);
+    
+    private static final RuleSet[] PRESETS = {NINUKI, NO_CAPTURES, STANDARD, FREESTYLE};
+    
+    final String name;
+    final int size;
+    final boolean captures;
+    final boolean forbidDoubleThree;
+    final boolean exactFive;
+    
+    // RuleTables flags for these rules, indexed [player][GameBoard.windowKey]
+    final byte[][] flags;
+    // Every line as it starts on an empty board, cells outside the board already off-board
+    final long[] emptyLines;
+    // On-board cells up to two steps away along the eight directions
+    final int[][] nearby;
+    // The eight rotations and reflections of this board, as cell maps
+    final int[][] symmetry;
+    // Size minus the distance to the centre for every on-board cell
+    final int[] centreBonus;
+    final int centre;
+    // Mixed into every hash so positions from different rules never share a table entry;
+    // zero for Ninuki on the full grid, which keeps existing opening books valid
+    final long key;
+    
+    public RuleSet(String name, int size, boolean captures, boolean forbidDoubleThree, boolean exactFive) {
+        if (size < MIN_SIZE || size > GameBoard.GRID_SIZE) {
+            throw new IllegalArgumentException("board size must be between " + MIN_SIZE + " and " + GameBoard.GRID_SIZE);
+        }
+        this.name = name;
+        this.size = size;
+        this.captures = captures;
+        this.forbidDoubleThree = forbidDoubleThree;
+        this.exactFive = exactFive;
+        this.flags = RuleTables.forRules(captures, exactFive);
+        this.centre = size / 2 * GameBoard.GRID_SIZE + size / 2;
+        
+        emptyLines = GameBoard.emptyLines();
+        nearby = new int[GameBoard.CELL_COUNT][];
+        centreBonus = new int[GameBoard.CELL_COUNT];
+        int[] buffer = new int[16];
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            int x = cell % GameBoard.GRID_SIZE;
+            int y = cell / GameBoard.GRID_SIZE;
+            int count = 0;
+            if (contains(x, y)) {
+                for (GameBoard.Direction direction : GameBoard.Direction.values()) {
+                    for (int i = -2; i <= 2; i++) {
+                        int nx = x + i * direction.getDx();
+                        int ny = y + i * direction.getDy();
+                        if (i != 0 && contains(nx, ny)) {
+                            buffer[count++] = ny * GameBoard.GRID_SIZE + nx;
+                        }
+                    }
+                }
+                centreBonus[cell] = size - Math.abs(x - size / 2) - Math.abs(y - size / 2);
+            } else {
+                for (int dir = 0; dir < 4; dir++) {
+                    emptyLines[GameBoard.LINE_INDEX[dir][cell]] |= 3L << GameBoard.LINE_SHIFT[dir][cell];
+                }
+            }
+            nearby[cell] = Arrays.copyOf(buffer, count);
+        }
+        
+        int last = size - 1;
+        symmetry = new int[GameBoard.SYMMETRIES][GameBoard.CELL_COUNT];
+        for (int cell = 0; cell < GameBoard.CELL_COUNT; cell++) {
+            int x = cell % GameBoard.GRID_SIZE;
+            int y = cell / GameBoard.GRID_SIZE;
+            int[][] images = {
+                {x, y}, {last - x, y}, {x, last - y}, {last - x, last - y},
+                {y, x}, {last - y, x}, {y, last - x}, {last - y, last - x}
+            };
+            for (int s = 0; s < GameBoard.SYMMETRIES; s++) {
+                // Off-board cells never hold a stone; they map to themselves
+                symmetry[s][cell] = contains(x, y) ? images[s][1] * GameBoard.GRID_SIZE + images[s][0] : cell;
+            }
+        }
+        
+        boolean ninuki = size == GameBoard.GRID_SIZE && captures && forbidDoubleThree && !exactFive;
+        long seed = size | (captures ? 1 << 8 : 0) | (forbidDoubleThree ? 1 << 9 : 0) | (exactFive ? 1 << 10 : 0);
+        key = ninuki ? 0 : new SplittableRandom(seed).nextLong();
+    }
+    
+    // A preset by name, optionally with another size as name:size, e.g. standard:19
+    public static RuleSet forName(String spec) {
+        String[] parts = spec.split(":", 2);
+        for (RuleSet rules : PRESETS) {
+            if (rules.name.equals(parts[0])) {
+                return parts.length > 1 ? rules.withSize(Integer.parseInt(parts[1])) : rules;
+            }
+        }
+        throw new IllegalArgumentException("unknown rules " + parts[0]);
+    }
+    
+    public RuleSet withSize(int size) {
+        return size == this.size ? this : new RuleSet(name, size, captures, forbidDoubleThree, exactFive);
+    }
+    
+    public boolean contains(int x, int y) {
+        return x >= 0 && x < size && y >= 0 && y < size;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public boolean hasCaptures() {
+        return captures;
+    }
+    
+    public int getCentre() {
+        return centre;
+    }
+    
+    @Override
+    public String toString() {
+        return name + ":" + size;
+    }
+}
@@ -0,0 +1,148 @@
+package fr.game.board;
+
+public class RuleTables {
+    // Flags for a stone of the given colour placed between the eight cells of a GameBoard.windowKey
+    public static final int FREE_THREE = 1;
+    public static final int CAPTURE_FORWARD = 2;
+    public static final int CAPTURE_BACKWARD = 4;
+    public static final int FIVE = 8;
+    // The stone leaves an empty cell in the window that would complete five through it
+    public static final int FOUR = 16;
+    // Exact-five rules only: the five runs to the edge of the window on that side, so the
+    // board has to look one cell further for a sixth stone that would make it an overline
+    public static final int OVERLINE_FORWARD = 32;
+    public static final int OVERLINE_BACKWARD = 64;
+    
+    private static final int WIN_SEQUENCE = 5;
+    private static final int WALL = 3;
+    
+    // Built on first use for each combination of rules, indexed by captures | exactFive << 1
+    private static final byte[][][] TABLES = new byte[4][][];
+    
+    private RuleTables() {
+    }
+    
+    static synchronized byte[][] forRules(boolean captures, boolean exactFive) {
+        int index = (captures ? 1 : 0) | (exactFive ? 2 : 0);
+        if (TABLES[index] == null) {
+            TABLES[index] = build(captures, exactFive);
+        }
+        return TABLES[index];
+    }
+    
+    private static byte[][] build(boolean captures, boolean exactFive) {
+        byte[][] flags = new byte[2][1 << 16];
+        int[] cells = new int[9];
+        for (int key = 0; key < 1 << 16; key++) {
+            for (int i = 0; i < 4; i++) {
+                cells[i] = (key >>> (2 * i)) & 3;
+                cells[5 + i] = (key >>> (8 + 2 * i)) & 3;
+            }
+            for (int player = 0; player < 2; player++) {
+                cells[4] = player + 1;
+                flags[player][key] = (byte) computeFlags(cells, player + 1, captures, exactFive);
+            }
+        }
+        return flags;
+    }
+    
+    private static int computeFlags(int[] cells, int own, boolean captures, boolean exactFive) {
+        int flags = 0;
+        if (isFreeThree(cells, own)) {
+            flags |= FREE_THREE;
+        }
+        
+        int enemy = 3 - own;
+        if (captures && cells[5] == enemy && cells[6] == enemy && cells[7] == own) {
+            flags |= CAPTURE_FORWARD;
+        }
+        if (captures && cells[3] == enemy && cells[2] == enemy && cells[1] == own) {
+            flags |= CAPTURE_BACKWARD;
+        }
+        
+        int high = 4;
+        while (high < 8 && cells[high + 1] == own) {
+            high++;
+        }
+        int low = 4;
+        while (low > 0 && cells[low - 1] == own) {
+            low--;
+        }
+        int count = high - low + 1;
+        if (exactFive ? count == WIN_SEQUENCE : count >= WIN_SEQUENCE) {
+            flags |= FIVE;
+            if (exactFive && high == 8) {
+                flags |= OVERLINE_FORWARD;
+            }
+            if (exactFive && low == 0) {
+                flags |= OVERLINE_BACKWARD;
+            }
+        } else if (count < WIN_SEQUENCE && makesFour(cells, own, exactFive)) {
+            flags |= FOUR;
+        }
+        return flags;
+    }
+    
+    // Under exact-five rules a four must leave exactly five, with the run clear of the window
+    // edges since nothing is known past them
+    private static boolean makesFour(int[] cells, int own, boolean exactFive) {
+        for (int gap = 0; gap < 9; gap++) {
+            if (cells[gap] != 0) {
+                continue;
+            }
+            int low = Math.min(gap, 4);
+            int high = Math.max(gap, 4);
+            boolean filled = true;
+            for (int i = low; i <= high && filled; i++) {
+                filled = i == gap || cells[i] == own;
+            }
+            if (!filled) {
+                continue;
+            }
+            while (low > 0 && cells[low - 1] == own) {
+                low--;
+            }
+            while (high < 8 && cells[high + 1] == own) {
+                high++;
+            }
+            int length = high - low + 1;
+            if (exactFive ? length == WIN_SEQUENCE && low > 0 && high < 8 : length >= WIN_SEQUENCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Same walk as the original board scan: runs of own stones on both sides, stopping at
+    // the first gap, failing on an enemy stone and quietly stopping at the edge
+    private static boolean isFreeThree(int[] cells, int own) {
+        int count = 1;
+        boolean hasSpace = false;
+        
+        // Check forward
+        for (int i = 5; i < 9 && cells[i] != WALL && count < 4; i++) {
+            if (cells[i] == own) {
+                count++;
+            } else if (cells[i] == 0) {
+                hasSpace = true;
+                break;
+            } else {
+                return false;
+            }
+        }
+        
+        // Check backward
+        for (int i = 3; i >= 0 && cells[i] != WALL && count < 4; i--) {
+            if (cells[i] == own) {
+                count++;
+            } else if (cells[i] == 0) {
+                hasSpace = true;
+                break;
+            } else {
+                return false;
+            }
+        }
+        
+        return count == 3 && hasSpace;
+    }
+}
@@ -0,0 +1,42 @@
+package fr.game.board;
+
+public class ScalingReport {
+    private static final int[][] OPENING = {
+        {9, 9}, {10, 10}, {10, 9}, {8, 9}, {9, 10}, {9, 8}, {11, 11}, {8, 11}, {10, 8}, {7, 10}
+    };
+    
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        
+        GameBoard board = new GameBoard();
+        for (int[] move : OPENING) {
+            board.placePiece(move[0], move[1]);
+        }
+        
+        // Warm the JIT up so the single-threaded baseline is not measured cold
+        new BrainEngine(64, 8, budget, 1).findBestMove(board);
+        
+        System.out.printf("%8s %14s %14s %8s %6s%n", "threads", "nodes", "nodes/sec", "speedup", "depth");
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            BrainEngine brain = new BrainEngine(64, 8, budget, threads);
+            brain.findBestMove(board);
+            long nodes = brain.getNodeCount();
+            double nodesPerSecond = nodes / brain.getThinkingTime();
+            if (threads == 1) {
+                baseline = nodesPerSecond;
+            }
+            System.out.printf("%8d %14d %14.0f %7.2fx %6d%n",
+                threads, nodes, nodesPerSecond, nodesPerSecond / baseline, brain.getCompletedDepth());
+        }
+    }
+    
+    // 1, 2, 4, 8... and finally the requested count itself
+    private static int nextThreadCount(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+}
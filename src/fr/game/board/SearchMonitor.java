@@ -0,0 +1,42 @@
+package fr.game.board;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Carries search progress from the engine to one consumer without ever holding up the search.
+// The engine offers a view at most once per interval; the consumer gets the newest one on its
+// own executor, and a view that arrives before the last one was taken simply replaces it.
+public class SearchMonitor {
+    private final Executor executor;
+    private final long intervalNanos;
+    private final Consumer<SearchView> consumer;
+    private final AtomicReference<SearchView> pending = new AtomicReference<>();
+    // Only touched by the search thread
+    private long nextPublish;
+    
+    public SearchMonitor(Executor executor, long intervalMillis, Consumer<SearchView> consumer) {
+        this.executor = executor;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.consumer = consumer;
+        this.nextPublish = System.nanoTime();
+    }
+    
+    boolean isDue(long now) {
+        return now - nextPublish >= 0;
+    }
+    
+    void publish(SearchView view, long now) {
+        nextPublish = now + intervalNanos;
+        if (pending.getAndSet(view) == null) {
+            executor.execute(this::deliver);
+        }
+    }
+    
+    private void deliver() {
+        SearchView view = pending.getAndSet(null);
+        if (view != null) {
+            consumer.accept(view);
+        }
+    }
+}
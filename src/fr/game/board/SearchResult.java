@@ -0,0 +1,28 @@
+package fr.game.board;
+
+// The chosen move together with what it cost to find it
+public class SearchResult {
+    private final BrainEngine.Position move;
+    private final SearchStats stats;
+    private final int[] principalVariation;
+    
+    public SearchResult(BrainEngine.Position move, SearchStats stats, int[] principalVariation) {
+        this.move = move;
+        this.stats = stats;
+        this.principalVariation = principalVariation;
+    }
+    
+    // Null when the side to move has no legal move
+    public BrainEngine.Position getMove() {
+        return move;
+    }
+    
+    public SearchStats getStats() {
+        return stats;
+    }
+    
+    // Cells from the chosen move on, alternating sides; empty when there is no move
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+}
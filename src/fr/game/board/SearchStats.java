@@ -0,0 +1,212 @@
+package fr.game.board;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Counters for one search. Each worker fills its own instance with plain field
+// increments; the engine merges them once the search is over.
+public class SearchStats {
+    long nodes;
+    // Of the nodes, those searched past the horizon
+    long quiescenceNodes;
+    long evaluations;
+    long cutoffs;
+    long firstMoveCutoffs;
+    long tableProbes;
+    long tableHits;
+    long threatNodes;
+    long reSearches;
+    int maxPly;
+    int completedDepth;
+    // From the side to move's point of view, as of the last completed iteration
+    int score;
+    boolean bookMove;
+    long elapsedNanos;
+    // Indexed by iteration depth; only the main worker's iterations are kept after merging
+    final long[] iterationNodes = new long[MoveGenerator.MAX_PLY + 1];
+    final long[] iterationNanos = new long[MoveGenerator.MAX_PLY + 1];
+    
+    void reset() {
+        nodes = 0;
+        quiescenceNodes = 0;
+        evaluations = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        threatNodes = 0;
+        reSearches = 0;
+        maxPly = 0;
+        completedDepth = 0;
+        score = 0;
+        bookMove = false;
+        elapsedNanos = 0;
+        Arrays.fill(iterationNodes, 0);
+        Arrays.fill(iterationNanos, 0);
+    }
+    
+    void recordCutoff(int movesSearched) {
+        cutoffs++;
+        if (movesSearched == 1) {
+            firstMoveCutoffs++;
+        }
+    }
+    
+    void add(SearchStats other) {
+        nodes += other.nodes;
+        quiescenceNodes += other.quiescenceNodes;
+        evaluations += other.evaluations;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        tableProbes += other.tableProbes;
+        tableHits += other.tableHits;
+        threatNodes += other.threatNodes;
+        reSearches += other.reSearches;
+        maxPly = Math.max(maxPly, other.maxPly);
+        bookMove |= other.bookMove;
+    }
+    
+    void copyIterations(SearchStats other) {
+        System.arraycopy(other.iterationNodes, 0, iterationNodes, 0, iterationNodes.length);
+        System.arraycopy(other.iterationNanos, 0, iterationNanos, 0, iterationNanos.length);
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+    
+    public long getEvaluations() {
+        return evaluations;
+    }
+    
+    public long getCutoffs() {
+        return cutoffs;
+    }
+    
+    public long getTableProbes() {
+        return tableProbes;
+    }
+    
+    public long getTableHits() {
+        return tableHits;
+    }
+    
+    public long getThreatNodes() {
+        return threatNodes;
+    }
+    
+    // Null-window and reduced searches that had to be repeated, plus aspiration failures
+    public long getReSearches() {
+        return reSearches;
+    }
+    
+    public int getMaxPly() {
+        return maxPly;
+    }
+    
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+    
+    public int getScore() {
+        return score;
+    }
+    
+    // A proven result rather than a heuristic estimate
+    public boolean isForcedResult() {
+        return Math.abs(score) >= BrainEngine.MATE_BOUND;
+    }
+    
+    public boolean isBookMove() {
+        return bookMove;
+    }
+    
+    public double getSeconds() {
+        return elapsedNanos / 1_000_000_000.0;
+    }
+    
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000.0 / elapsedNanos;
+    }
+    
+    // Share of beta cutoffs produced by the first move searched; close to 1 means good ordering
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+    
+    public double getTableHitRate() {
+        return tableProbes == 0 ? 0 : (double) tableHits / tableProbes;
+    }
+    
+    // Growth in nodes between the last two completed iterations
+    public double getEffectiveBranchingFactor() {
+        int depth = iterationNodes.length - 1;
+        while (depth > 0 && iterationNodes[depth] == 0) {
+            depth--;
+        }
+        if (depth < 2 || iterationNodes[depth - 1] == 0) {
+            return 0;
+        }
+        return (double) iterationNodes[depth] / iterationNodes[depth - 1];
+    }
+    
+    public long getIterationNodes(int depth) {
+        return iterationNodes[depth];
+    }
+    
+    public double getIterationMillis(int depth) {
+        return iterationNanos[depth] / 1_000_000.0;
+    }
+    
+    public String summary() {
+        if (bookMove) {
+            return String.format(Locale.ROOT, "%.2fs  book move", getSeconds());
+        }
+        return String.format(Locale.ROOT, "%.2fs  depth %d/%d  %d nodes (%.0fk/s)  ebf %.1f  cut1st %.0f%%  tt %.0f%%",
+            getSeconds(), completedDepth, maxPly, nodes, getNodesPerSecond() / 1000,
+            getEffectiveBranchingFactor(), 100 * getFirstMoveCutoffRate(), 100 * getTableHitRate());
+    }
+    
+    // One line of key=value pairs, stable enough to grep or parse
+    public String toLogLine() {
+        StringBuilder line = new StringBuilder(256);
+        line.append("search")
+            .append(" ms=").append(elapsedNanos / 1_000_000)
+            .append(" book=").append(bookMove ? 1 : 0)
+            .append(" depth=").append(completedDepth)
+            .append(" maxply=").append(maxPly)
+            .append(" score=").append(score)
+            .append(" nodes=").append(nodes)
+            .append(" qnodes=").append(quiescenceNodes)
+            .append(" evals=").append(evaluations)
+            .append(" cutoffs=").append(cutoffs)
+            .append(" firstcut=").append(firstMoveCutoffs)
+            .append(" ttprobes=").append(tableProbes)
+            .append(" tthits=").append(tableHits)
+            .append(" threatnodes=").append(threatNodes)
+            .append(" researches=").append(reSearches)
+            .append(" ebf=").append(String.format(Locale.ROOT, "%.2f", getEffectiveBranchingFactor()))
+            .append(" iterms=");
+        boolean first = true;
+        for (int depth = 1; depth < iterationNanos.length; depth++) {
+            if (iterationNodes[depth] == 0) {
+                continue;
+            }
+            if (!first) {
+                line.append(',');
+            }
+            line.append(depth).append(':').append(iterationNanos[depth] / 1_000_000);
+            first = false;
+        }
+        return line.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return toLogLine();
+    }
+}
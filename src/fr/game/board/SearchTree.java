@@ -0,0 +1,191 @@
+package fr.game.board;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+// The best few children of a searched position, a few plies deep, as the transposition table
+// saw them, for looking at after the game. The file is a header, the moves leading to the
+// position and then every node in preorder at eight bytes each.
+// Print one with: make tree ARGS=search-12.gmt
+public class SearchTree {
+    public static final String EXTENSION = ".gmt";
+    private static final int MAGIC = 0x474D5354;
+    private static final int VERSION = 1;
+    // cell (2 bytes), depth (1), bound << 6 | child count (1), score (4)
+    private static final int NODE_BYTES = 8;
+    static final int MAX_WIDTH = 63;
+    
+    private final String rules;
+    private final int[] moves;
+    private final Node root;
+    
+    SearchTree(String rules, int[] moves, Node root) {
+        this.rules = rules;
+        this.moves = moves;
+        this.root = root;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SearchTree file" + EXTENSION);
+            return;
+        }
+        System.out.print(read(Paths.get(args[0])));
+    }
+    
+    public Node getRoot() {
+        return root;
+    }
+    
+    // The moves that lead from the empty board to the root position
+    public int[] getMoves() {
+        return moves.clone();
+    }
+    
+    public void write(Path path) throws IOException {
+        byte[] name = rules.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(12 + name.length + 2 * moves.length + NODE_BYTES * root.size());
+        out.putInt(MAGIC).putInt(VERSION).putShort((short) name.length).put(name).putShort((short) moves.length);
+        for (int move : moves) {
+            out.putShort((short) move);
+        }
+        root.encode(out);
+        Files.write(path, out.array());
+    }
+    
+    public static SearchTree read(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("not a search tree file");
+            }
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            int[] moves = new int[in.getShort() & 0xFFFF];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = in.getShort() & 0xFFFF;
+            }
+            return new SearchTree(new String(name, StandardCharsets.UTF_8), moves, Node.decode(in));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated search tree file");
+        }
+    }
+    
+    // One line per node, children indented under their parent. Scores are from the point
+    // of view of the side that played the move, bounds marked with >= or <=.
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("rules ").append(rules).append("  after ").append(moves.length).append(" moves:");
+        for (int move : moves) {
+            text.append(' ').append(cellName(move));
+        }
+        text.append('\n');
+        text.append(String.format(Locale.ROOT, "root  %s  depth %d%n", scoreText(root.score, root.bound), root.depth));
+        for (Node child : root.children) {
+            child.print(text, 1);
+        }
+        return text.toString();
+    }
+    
+    private static String cellName(int cell) {
+        return cell % GameBoard.GRID_SIZE + "," + cell / GameBoard.GRID_SIZE;
+    }
+    
+    private static String scoreText(int score, int bound) {
+        String prefix = bound == TranspositionTable.LOWER ? ">=" : bound == TranspositionTable.UPPER ? "<=" : "";
+        if (score >= BrainEngine.MATE_BOUND) {
+            return prefix + "win in " + (BrainEngine.WIN_SCORE - score);
+        }
+        if (score <= -BrainEngine.MATE_BOUND) {
+            return prefix + "loss in " + (BrainEngine.WIN_SCORE + score);
+        }
+        return prefix + score;
+    }
+    
+    public static class Node {
+        final int move;
+        // From the side to move's point of view at this node, as stored in the table
+        final int score;
+        final int depth;
+        final int bound;
+        final Node[] children;
+        
+        Node(int move, int score, int depth, int bound, Node[] children) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.bound = bound;
+            this.children = children;
+        }
+        
+        public int getMove() {
+            return move;
+        }
+        
+        public int getScore() {
+            return score;
+        }
+        
+        public int getDepth() {
+            return depth;
+        }
+        
+        public int getBound() {
+            return bound;
+        }
+        
+        public int getChildCount() {
+            return children.length;
+        }
+        
+        public Node getChild(int index) {
+            return children[index];
+        }
+        
+        int size() {
+            int size = 1;
+            for (Node child : children) {
+                size += child.size();
+            }
+            return size;
+        }
+        
+        void encode(ByteBuffer out) {
+            out.putShort((short) move).put((byte) depth).put((byte) (bound << 6 | children.length)).putInt(score);
+            for (Node child : children) {
+                child.encode(out);
+            }
+        }
+        
+        static Node decode(ByteBuffer in) {
+            int move = in.getShort() & 0xFFFF;
+            int depth = in.get() & 0xFF;
+            int packed = in.get() & 0xFF;
+            int score = in.getInt();
+            Node[] children = new Node[packed & MAX_WIDTH];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = decode(in);
+            }
+            return new Node(move, score, depth, packed >>> 6, children);
+        }
+        
+        // The mover's score is the negated score of the position it leads to
+        void print(StringBuilder text, int indent) {
+            int flipped = bound == TranspositionTable.LOWER ? TranspositionTable.UPPER
+                : bound == TranspositionTable.UPPER ? TranspositionTable.LOWER
+                : bound;
+            text.append("  ".repeat(indent))
+                .append(String.format(Locale.ROOT, "%-6s %s  depth %d%n", cellName(move), scoreText(-score, flipped), depth));
+            for (Node child : children) {
+                child.print(text, indent + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fr.game.board;
+
+// What the main search thread has found so far, as an immutable copy that any thread can read.
+// Root moves come in search order with the score and the node count they got; a move searched
+// with a null window only has a bound. Scores are from the side to move's point of view.
+public class SearchView {
+    private final int moveCount;
+    private final int player;
+    private final int completedDepth;
+    private final int searchingDepth;
+    private final int bestScore;
+    private final long elapsedNanos;
+    private final boolean finished;
+    private final int[] moves;
+    private final int[] scores;
+    private final byte[] bounds;
+    private final long[] nodes;
+    private final int[] principalVariation;
+    
+    SearchView(int moveCount, int player, int completedDepth, int searchingDepth, int bestScore,
+               long elapsedNanos, boolean finished, int[] moves, int[] scores, byte[] bounds,
+               long[] nodes, int[] principalVariation) {
+        this.moveCount = moveCount;
+        this.player = player;
+        this.completedDepth = completedDepth;
+        this.searchingDepth = searchingDepth;
+        this.bestScore = bestScore;
+        this.elapsedNanos = elapsedNanos;
+        this.finished = finished;
+        this.moves = moves;
+        this.scores = scores;
+        this.bounds = bounds;
+        this.nodes = nodes;
+        this.principalVariation = principalVariation;
+    }
+    
+    // Moves played before the searched position
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    public int getPlayer() {
+        return player;
+    }
+    
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+    
+    // The iteration under way when the view was taken
+    public int getSearchingDepth() {
+        return searchingDepth;
+    }
+    
+    public int getBestScore() {
+        return bestScore;
+    }
+    
+    public double getSeconds() {
+        return elapsedNanos / 1_000_000_000.0;
+    }
+    
+    // The last view of a search, taken once the move was chosen
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    public int size() {
+        return moves.length;
+    }
+    
+    public int getMove(int index) {
+        return moves[index];
+    }
+    
+    public int getScore(int index) {
+        return scores[index];
+    }
+    
+    // TranspositionTable.EXACT, LOWER or UPPER
+    public int getBound(int index) {
+        return bounds[index];
+    }
+    
+    public long getNodes(int index) {
+        return nodes[index];
+    }
+    
+    public int getPrincipalVariationLength() {
+        return principalVariation.length;
+    }
+    
+    public int getPrincipalVariation(int index) {
+        return principalVariation[index];
+    }
+}
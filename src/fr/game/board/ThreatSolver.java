@@ -0,0 +1,255 @@
+package fr.game.board;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+// Threat-space search: proves wins made only of fours (VCF) or of fours and threes (VCT).
+// Only threats are tried for the attacker and only the moves that can answer them for the
+// defender, which is narrow enough to read far deeper than the main search.
+public class ThreatSolver {
+    static final int VCF_DEPTH = 16;
+    static final int VCT_DEPTH = 8;
+    private static final int MAX_PLY = 2 * VCF_DEPTH + 8;
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+    
+    private static final int CACHE_BITS = 16;
+    private static final long VCT_SALT = 0x5DEECE66DL;
+    private static final long WIN = 1L << 20;
+    private static final int DEPTH_SHIFT = 10;
+    private static final int CAPTURES = RuleTables.CAPTURE_FORWARD | RuleTables.CAPTURE_BACKWARD;
+    
+    // The solver never asks for a score, so its boards can skip the evaluator bookkeeping
+    private static final BoardEvaluator NO_EVALUATION = new BoardEvaluator() {
+        @Override
+        public void reset(GameBoard board) {
+        }
+        
+        @Override
+        public void onAdd(GameBoard board, int cell, int player) {
+        }
+        
+        @Override
+        public void onRemove(GameBoard board, int cell, int player) {
+        }
+        
+        @Override
+        public int evaluate(GameBoard board, int player) {
+            return 0;
+        }
+        
+        @Override
+        public BoardEvaluator copy() {
+            return this;
+        }
+    };
+    
+    private final BooleanSupplier stopRequested;
+    private final long[] cacheKeys = new long[1 << CACHE_BITS];
+    private final long[] cacheData = new long[1 << CACHE_BITS];
+    private final int[][] candidates = new int[MAX_PLY][GameBoard.CELL_COUNT];
+    private final int[][] moves = new int[MAX_PLY][GameBoard.CELL_COUNT];
+    private long nodes;
+    private long nodeBudget;
+    private long deadline;
+    private boolean aborted;
+    private int winningMove;
+    
+    public ThreatSolver() {
+        this(() -> false);
+    }
+    
+    // The stop request is polled with the clock, so an owner can cancel a long solve
+    public ThreatSolver(BooleanSupplier stopRequested) {
+        this.stopRequested = stopRequested;
+    }
+    
+    public void clear() {
+        Arrays.fill(cacheKeys, 0);
+        Arrays.fill(cacheData, 0);
+    }
+    
+    public long getNodeCount() {
+        return nodes;
+    }
+    
+    // A copy of the board for the solver to play on
+    public static GameBoard copyForSolving(GameBoard board) {
+        GameBoard copy = new GameBoard(board);
+        copy.setEvaluator(NO_EVALUATION);
+        return copy;
+    }
+    
+    // A winning first move for the side to move, or NO_MOVE if none was proven within the budget
+    public int findWin(GameBoard board, boolean threes, long nodeBudget, long deadline) {
+        this.nodeBudget = nodes + nodeBudget;
+        this.deadline = deadline;
+        aborted = false;
+        winningMove = TranspositionTable.NO_MOVE;
+        if (board.getState() != GameBoard.GameState.PLAYING || System.nanoTime() >= deadline) {
+            return TranspositionTable.NO_MOVE;
+        }
+        
+        boolean won = attack(board, threes ? VCT_DEPTH : VCF_DEPTH, 0, threes);
+        return won ? winningMove : TranspositionTable.NO_MOVE;
+    }
+    
+    // Attacker to move: true if some threat wins against every defence
+    private boolean attack(GameBoard board, int depth, int ply, boolean threes) {
+        if (++nodes >= nodeBudget
+            || (nodes % CLOCK_CHECK_INTERVAL == 0 && (System.nanoTime() >= deadline || stopRequested.getAsBoolean()))) {
+            aborted = true;
+        }
+        if (aborted || ply >= MAX_PLY - 2) {
+            return false;
+        }
+        
+        int attacker = board.getCurrentPlayer();
+        int defender = 1 - attacker;
+        int[] cells = candidates[ply];
+        int count = board.collectCandidates(cells);
+        boolean mustBlock = false;
+        for (int i = 0; i < count; i++) {
+            if (board.isWinningMove(cells[i], attacker)) {
+                winningMove = cells[i];
+                return true;
+            }
+            mustBlock |= board.isWinningMove(cells[i], defender);
+        }
+        if (depth == 0) {
+            return false;
+        }
+        
+        long key = board.getHash() ^ (threes ? VCT_SALT : 0);
+        int slot = (int) key & ((1 << CACHE_BITS) - 1);
+        if (cacheKeys[slot] == key) {
+            long data = cacheData[slot];
+            if ((data & WIN) != 0) {
+                winningMove = (int) (data & TranspositionTable.NO_MOVE);
+                return true;
+            }
+            if ((data >>> DEPTH_SHIFT & 0xFF) >= depth) {
+                return false;
+            }
+        }
+        
+        int moveCount = attackerMoves(board, cells, count, moves[ply], mustBlock, threes);
+        int[] list = moves[ply];
+        for (int i = 0; i < moveCount; i++) {
+            int cell = list[i];
+            board.makeMove(cell);
+            GameBoard.GameState state = board.getState();
+            boolean won = state == GameBoard.GameState.PLAYING ? defend(board, depth - 1, ply + 1, threes)
+                : state != GameBoard.GameState.DRAW;
+            board.unmakeMove();
+            if (aborted) {
+                return false;
+            }
+            if (won) {
+                cacheKeys[slot] = key;
+                cacheData[slot] = WIN | cell;
+                winningMove = cell;
+                return true;
+            }
+        }
+        
+        cacheKeys[slot] = key;
+        cacheData[slot] = (long) depth << DEPTH_SHIFT | TranspositionTable.NO_MOVE;
+        return false;
+    }
+    
+    // Defender to move: true if the attacker still wins after every sensible answer
+    private boolean defend(GameBoard board, int depth, int ply, boolean threes) {
+        int defender = board.getCurrentPlayer();
+        int attacker = 1 - defender;
+        int[] cells = candidates[ply];
+        int count = board.collectCandidates(cells);
+        boolean four = false;
+        for (int i = 0; i < count; i++) {
+            if (board.isWinningMove(cells[i], defender)) {
+                return false;
+            }
+            four |= board.isWinningMove(cells[i], attacker);
+        }
+        
+        // Without a four the move only counts if the attacker would win a short VCF after a pass
+        if (!four) {
+            if (!threes) {
+                return false;
+            }
+            board.passTurn();
+            boolean threat = attack(board, 2, ply + 1, false);
+            board.passTurn();
+            if (aborted || !threat) {
+                return false;
+            }
+        }
+        
+        // Blocks and captures; against a three also counter-fours and the attacker's capture points
+        int[] list = moves[ply];
+        int defenceCount = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            int attackerFlags = lineFlags(board, cell, attacker);
+            int defenderFlags = lineFlags(board, cell, defender);
+            boolean answers = four
+                ? board.isWinningMove(cell, attacker)
+                : (attackerFlags & (RuleTables.FOUR | RuleTables.FIVE | CAPTURES)) != 0
+                    || (defenderFlags & RuleTables.FOUR) != 0;
+            if ((answers || (defenderFlags & CAPTURES) != 0)
+                && board.isLegalMove(cell)) {
+                list[defenceCount++] = cell;
+            }
+        }
+        
+        for (int i = 0; i < defenceCount; i++) {
+            board.makeMove(list[i]);
+            boolean held = board.getState() != GameBoard.GameState.PLAYING || !attack(board, depth, ply + 1, threes);
+            board.unmakeMove();
+            if (aborted || held) {
+                return false;
+            }
+        }
+        // A four nothing can legally answer is as good as five; a three needs an answer to exist
+        return defenceCount > 0 || four;
+    }
+    
+    // Fours first, then threes; a pending enemy four leaves only blocks and captures
+    private static int attackerMoves(GameBoard board, int[] cells, int count, int[] list, boolean mustBlock, boolean threes) {
+        int attacker = board.getCurrentPlayer();
+        int defender = 1 - attacker;
+        int fours = 0;
+        int threats = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            int flags = lineFlags(board, cell, attacker);
+            boolean capture = (flags & CAPTURES) != 0;
+            boolean keep;
+            boolean first;
+            if (mustBlock) {
+                keep = capture || board.isWinningMove(cell, defender);
+                first = true;
+            } else {
+                first = (flags & RuleTables.FOUR) != 0 || capture;
+                keep = first || (threes && (flags & RuleTables.FREE_THREE) != 0);
+            }
+            if (!keep || !board.isLegalMove(cell)) {
+                continue;
+            }
+            if (first) {
+                list[threats++] = list[fours];
+                list[fours++] = cell;
+            } else {
+                list[threats++] = cell;
+            }
+        }
+        return threats;
+    }
+    
+    private static int lineFlags(GameBoard board, int cell, int player) {
+        int flags = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            flags |= board.ruleFlags(player, board.windowKey(dir, cell));
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,405 @@
+package fr.game.board;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Engine-vs-engine matches: both configurations play every opening once with each colour,
+// games run in parallel and each result is appended to the output file as soon as it is in.
+// Every game can also be kept as a move record for later replay or analysis.
+// Run with: make tournament [ARGS="--games 1000 --a 12:5:100 --b 12:8:100:1:eval.nnue --out match.jsonl --records match.gmr --rules standard"]
+public class Tournament {
+    private static final int MAX_GAME_PLIES = 400;
+    private static final int OPENING_RADIUS = 3;
+    private static final double Z_95 = 1.96;
+    
+    private final RuleSet rules;
+    private final EngineConfig first;
+    private final EngineConfig second;
+    private final OpeningBook book;
+    private final int openingPlies;
+    private final long seed;
+    private final ThreadLocal<Engine[]> engines;
+    // Every engine the pool threads made, to be closed once the match is over
+    private final List<Engine> created = new CopyOnWriteArrayList<>();
+    
+    public Tournament(RuleSet rules, EngineConfig first, EngineConfig second, OpeningBook book, int openingPlies, long seed) {
+        this.rules = rules;
+        this.first = first;
+        this.second = second;
+        this.book = book;
+        this.openingPlies = openingPlies;
+        this.seed = seed;
+        // Engines are not thread-safe, so every pool thread keeps its own pair. Each engine
+        // searches once before its first game, so table set-up and JIT compilation do not
+        // show up as the worst move of the match.
+        this.engines = ThreadLocal.withInitial(() -> {
+            Engine[] pair = {first.create(), second.create()};
+            created.add(pair[0]);
+            created.add(pair[1]);
+            GameBoard sample = openingFor(-1);
+            pair[0].findBestMove(sample);
+            pair[1].findBestMove(sample);
+            return pair;
+        });
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int games = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        EngineConfig first = EngineConfig.parse("12:5:100");
+        EngineConfig second = EngineConfig.parse("12:5:100");
+        boolean useBook = false;
+        int openingPlies = 4;
+        long seed = 1;
+        Path out = Paths.get("tournament.jsonl");
+        Path records = null;
+        RuleSet rules = RuleSet.NINUKI;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--a":
+                    first = EngineConfig.parse(args[i + 1]);
+                    break;
+                case "--b":
+                    second = EngineConfig.parse(args[i + 1]);
+                    break;
+                case "--openings":
+                    useBook = args[i + 1].equals("book");
+                    break;
+                case "--opening-plies":
+                    openingPlies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--records":
+                    records = Paths.get(args[i + 1]);
+                    break;
+                case "--rules":
+                    rules = RuleSet.forName(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        
+        OpeningBook book = useBook ? OpeningBook.openDefault() : null;
+        if (useBook && book == null) {
+            System.err.println("No opening book at " + OpeningBook.DEFAULT_PATH + ", using random openings");
+        }
+        Tournament tournament = new Tournament(rules, first, second, book, openingPlies, seed);
+        Standings standings = tournament.run(games, threads, out, records);
+        System.out.println(standings.report(first, second));
+    }
+    
+    // Records are appended to an existing file; pass null to keep none
+    public Standings run(int games, int threads, Path out, Path records) throws IOException, InterruptedException {
+        boolean csv = out.toString().endsWith(".csv");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<GameResult> results = new ExecutorCompletionService<>(pool);
+        Standings standings = new Standings();
+        try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8);
+             GameRecordWriter recordWriter = records != null ? GameRecordWriter.open(records, false) : null) {
+            if (csv) {
+                writer.write(GameResult.CSV_HEADER);
+                writer.newLine();
+            }
+            for (int game = 0; game < games; game++) {
+                int index = game;
+                results.submit(() -> play(index));
+            }
+            for (int done = 1; done <= games; done++) {
+                GameResult result;
+                try {
+                    result = results.take().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                standings.add(result);
+                writer.write(csv ? result.toCsv() : result.toJson());
+                writer.newLine();
+                writer.flush();
+                if (recordWriter != null) {
+                    recordWriter.append(result.record);
+                }
+                if (done % 10 == 0 || done == games) {
+                    System.out.println(done + "/" + games + "  " + standings.scoreLine());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            // After a failure the other games stop at their next move; their engines wait for that
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            for (Engine engine : created) {
+                engine.close();
+            }
+            created.clear();
+        }
+        return standings;
+    }
+    
+    // Games come in pairs that share an opening, with the colours swapped
+    GameResult play(int game) {
+        Engine[] pair = engines.get();
+        boolean firstIsBlack = game % 2 == 0;
+        GameBoard board = openingFor(game / 2);
+        GameResult result = new GameResult(game, firstIsBlack, board.getMoveCount());
+        
+        pair[0].newGame();
+        pair[1].newGame();
+        // An interrupted game is one the match no longer waits for
+        while (board.getState() == GameBoard.GameState.PLAYING && board.getMoveCount() < MAX_GAME_PLIES
+            && !Thread.currentThread().isInterrupted()) {
+            int side = (board.getCurrentPlayer() == 0) == firstIsBlack ? 0 : 1;
+            long start = System.nanoTime();
+            SearchResult search = pair[side].search(board);
+            long elapsed = System.nanoTime() - start;
+            BrainEngine.Position move = search.getMove();
+            if (move == null || !board.placePiece(move.x, move.y)) {
+                break;
+            }
+            result.recordMove(side, elapsed, search.getStats().getNodes());
+        }
+        
+        GameBoard.GameState state = board.getState();
+        result.plies = board.getMoveCount();
+        result.record = GameRecord.of(board);
+        if (state == GameBoard.GameState.PLAYING || state == GameBoard.GameState.DRAW) {
+            result.winner = -1;
+        } else {
+            boolean blackWon = state == GameBoard.GameState.BLACK_WINS;
+            result.winner = blackWon == firstIsBlack ? 0 : 1;
+        }
+        return result;
+    }
+    
+    private GameBoard openingFor(int pair) {
+        Random random = new Random(seed * 1_000_003L + pair);
+        GameBoard board = new GameBoard(rules);
+        int centre = rules.getSize() / 2;
+        int guard = 0;
+        while (board.getMoveCount() < openingPlies && guard++ < 1000) {
+            int cell = book != null ? book.lookup(board, random) : TranspositionTable.NO_MOVE;
+            if (cell == TranspositionTable.NO_MOVE) {
+                int x = centre - OPENING_RADIUS + random.nextInt(2 * OPENING_RADIUS + 1);
+                int y = centre - OPENING_RADIUS + random.nextInt(2 * OPENING_RADIUS + 1);
+                cell = y * GameBoard.GRID_SIZE + x;
+            }
+            if (board.isLegalMove(cell)) {
+                board.makeMove(cell);
+            }
+        }
+        return board;
+    }
+    
+    // depth:beam:milliseconds[:threads[:network file]] for BrainEngine,
+    // mcts:milliseconds[:threads[:network file]] for MonteCarloEngine
+    public static class EngineConfig {
+        private static final String MONTE_CARLO = "mcts";
+        
+        final boolean monteCarlo;
+        final int depth;
+        final int beam;
+        final long millis;
+        final int threads;
+        final Path networkPath;
+        final NeuralNetwork network;
+        
+        public EngineConfig(int depth, int beam, long millis, int threads) {
+            this(false, depth, beam, millis, threads, null, null);
+        }
+        
+        private EngineConfig(boolean monteCarlo, int depth, int beam, long millis, int threads,
+                             Path networkPath, NeuralNetwork network) {
+            this.monteCarlo = monteCarlo;
+            this.depth = depth;
+            this.beam = beam;
+            this.millis = millis;
+            this.threads = threads;
+            this.networkPath = networkPath;
+            this.network = network;
+        }
+        
+        public static EngineConfig parse(String text) {
+            boolean monteCarlo = text.startsWith(MONTE_CARLO + ":");
+            // The Monte Carlo form has no depth or beam; read it as if it had both
+            String[] fields = (monteCarlo ? "0:0:" + text.substring(MONTE_CARLO.length() + 1) : text).split(":", 5);
+            if (fields.length < 3) {
+                throw new IllegalArgumentException("expected depth:beam:ms[:threads[:network]] or "
+                    + MONTE_CARLO + ":ms[:threads[:network]], got " + text);
+            }
+            Path networkPath = fields.length == 5 ? Paths.get(fields[4]) : null;
+            NeuralNetwork network = null;
+            if (networkPath != null) {
+                try {
+                    network = NeuralNetwork.read(networkPath);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("cannot load " + networkPath + ": " + e.getMessage());
+                }
+            }
+            return new EngineConfig(monteCarlo, Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                Long.parseLong(fields[2]), fields.length >= 4 ? Integer.parseInt(fields[3]) : 1, networkPath, network);
+        }
+        
+        Engine create() {
+            Engine engine = monteCarlo
+                ? new MonteCarloEngine(millis, threads)
+                : new BrainEngine(depth, beam, millis, threads);
+            if (network != null) {
+                engine.setEvaluator(new NeuralEvaluator(network));
+            }
+            return engine;
+        }
+        
+        @Override
+        public String toString() {
+            return (monteCarlo ? MONTE_CARLO : depth + ":" + beam) + ":" + millis + ":" + threads
+                + (networkPath != null ? ":" + networkPath : "");
+        }
+    }
+    
+    static class GameResult {
+        static final String CSV_HEADER = "game,first_black,opening_plies,plies,winner,"
+            + "a_moves,a_avg_ms,a_max_ms,a_nodes,b_moves,b_avg_ms,b_max_ms,b_nodes";
+        
+        final int game;
+        final boolean firstIsBlack;
+        final int openingPlies;
+        final int[] moves = new int[2];
+        final long[] totalNanos = new long[2];
+        final long[] maxNanos = new long[2];
+        final long[] nodes = new long[2];
+        int plies;
+        // 0 for the first configuration, 1 for the second, -1 for a draw
+        int winner;
+        GameRecord record;
+        
+        GameResult(int game, boolean firstIsBlack, int openingPlies) {
+            this.game = game;
+            this.firstIsBlack = firstIsBlack;
+            this.openingPlies = openingPlies;
+        }
+        
+        void recordMove(int side, long nanos, long searchNodes) {
+            moves[side]++;
+            totalNanos[side] += nanos;
+            maxNanos[side] = Math.max(maxNanos[side], nanos);
+            nodes[side] += searchNodes;
+        }
+        
+        double averageMillis(int side) {
+            return moves[side] == 0 ? 0 : totalNanos[side] / 1e6 / moves[side];
+        }
+        
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%b,%d,%d,%d,%d,%.2f,%.2f,%d,%d,%.2f,%.2f,%d",
+                game, firstIsBlack, openingPlies, plies, winner,
+                moves[0], averageMillis(0), maxNanos[0] / 1e6, nodes[0],
+                moves[1], averageMillis(1), maxNanos[1] / 1e6, nodes[1]);
+        }
+        
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"game\":%d,\"first_black\":%b,\"opening_plies\":%d,\"plies\":%d,"
+                + "\"winner\":%d,\"a\":{\"moves\":%d,\"avg_ms\":%.2f,\"max_ms\":%.2f,\"nodes\":%d},"
+                + "\"b\":{\"moves\":%d,\"avg_ms\":%.2f,\"max_ms\":%.2f,\"nodes\":%d}}",
+                game, firstIsBlack, openingPlies, plies, winner,
+                moves[0], averageMillis(0), maxNanos[0] / 1e6, nodes[0],
+                moves[1], averageMillis(1), maxNanos[1] / 1e6, nodes[1]);
+        }
+    }
+    
+    // Running totals from the first configuration's point of view
+    public static class Standings {
+        private int wins;
+        private int losses;
+        private int draws;
+        private final long[] moves = new long[2];
+        private final long[] totalNanos = new long[2];
+        private final long[] maxNanos = new long[2];
+        private final long[] nodes = new long[2];
+        
+        void add(GameResult result) {
+            if (result.winner == 0) {
+                wins++;
+            } else if (result.winner == 1) {
+                losses++;
+            } else {
+                draws++;
+            }
+            for (int side = 0; side < 2; side++) {
+                moves[side] += result.moves[side];
+                totalNanos[side] += result.totalNanos[side];
+                maxNanos[side] = Math.max(maxNanos[side], result.maxNanos[side]);
+                nodes[side] += result.nodes[side];
+            }
+        }
+        
+        public int games() {
+            return wins + losses + draws;
+        }
+        
+        public double score() {
+            return games() == 0 ? 0.5 : (wins + 0.5 * draws) / games();
+        }
+        
+        // Half-width of the 95% interval on the score, from the spread of the per-game scores
+        public double scoreMargin() {
+            int n = games();
+            if (n < 2) {
+                return 0.5;
+            }
+            double p = score();
+            double variance = (wins * (1 - p) * (1 - p) + draws * (0.5 - p) * (0.5 - p) + losses * p * p) / n;
+            return Z_95 * Math.sqrt(variance / n);
+        }
+        
+        public static double elo(double score) {
+            double clamped = Math.min(Math.max(score, 1e-4), 1 - 1e-4);
+            return -400 * Math.log10(1 / clamped - 1);
+        }
+        
+        String scoreLine() {
+            double p = score();
+            double margin = scoreMargin();
+            return String.format(Locale.ROOT, "+%d -%d =%d  score %.1f%%  elo %+.0f [%+.0f, %+.0f]",
+                wins, losses, draws, 100 * p, elo(p), elo(p - margin), elo(p + margin));
+        }
+        
+        String report(EngineConfig first, EngineConfig second) {
+            StringBuilder report = new StringBuilder();
+            report.append("A ").append(first).append(" vs B ").append(second).append('\n');
+            report.append(scoreLine()).append('\n');
+            String[] names = {"A", "B"};
+            for (int side = 0; side < 2; side++) {
+                double seconds = totalNanos[side] / 1e9;
+                report.append(String.format(Locale.ROOT, "%s  avg %.1f ms/move  worst %.1f ms  %.0f nodes/sec%n",
+                    names[side], moves[side] == 0 ? 0 : totalNanos[side] / 1e6 / moves[side],
+                    maxNanos[side] / 1e6, seconds == 0 ? 0 : nodes[side] / seconds));
+            }
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fr.game.board;
+
+import java.util.Arrays;
+
+public class TranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+    public static final int NO_MOVE = 0x3FF;
+    
+    // Data layout: score (32) | move (10) | depth (8) | bound (2) | perspective (1) | generation (8) | valid (1)
+    private static final int MOVE_SHIFT = 32;
+    private static final int DEPTH_SHIFT = 42;
+    private static final int BOUND_SHIFT = 50;
+    private static final int PERSPECTIVE_SHIFT = 52;
+    private static final int GENERATION_SHIFT = 53;
+    private static final long VALID = 1L << 61;
+    
+    // Two longs per slot: key ^ data, then data. A torn write from another
+    // thread fails the key check on probe instead of returning a bad entry.
+    private final long[] slots;
+    private final int mask;
+    private int generation;
+    
+    public TranspositionTable(int megabytes) {
+        long entries = Long.highestOneBit(Math.max(1L, (long) megabytes << 20) / 16);
+        slots = new long[(int) Math.min(entries, 1 << 29) * 2];
+        mask = slots.length / 2 - 1;
+    }
+    
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+    
+    public void clear() {
+        Arrays.fill(slots, 0L);
+    }
+    
+    // Returns the packed entry for this key, or 0 when there is none
+    public long probe(long key) {
+        int index = ((int) key & mask) << 1;
+        long data = slots[index + 1];
+        if ((slots[index] ^ data) != key) {
+            return 0;
+        }
+        return data;
+    }
+    
+    public void store(long key, int depth, int bound, int score, int move, int perspective) {
+        int index = ((int) key & mask) << 1;
+        long old = slots[index + 1];
+        
+        // Replace by depth, but never keep entries left over from an earlier search
+        if ((old & VALID) != 0 && generation(old) == generation && depth < depth(old)) {
+            boolean sameKey = (slots[index] ^ old) == key;
+            if (!sameKey || bound != EXACT) {
+                return;
+            }
+        }
+        
+        long data = (score & 0xFFFFFFFFL)
+            | ((long) (move & NO_MOVE) << MOVE_SHIFT)
+            | ((long) (depth & 0xFF) << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) perspective << PERSPECTIVE_SHIFT)
+            | ((long) generation << GENERATION_SHIFT)
+            | VALID;
+        slots[index] = key ^ data;
+        slots[index + 1] = data;
+    }
+    
+    public static int score(long data) {
+        return (int) data;
+    }
+    
+    public static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & NO_MOVE;
+    }
+    
+    public static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+    
+    public static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+    
+    public static int perspective(long data) {
+        return (int) (data >>> PERSPECTIVE_SHIFT) & 1;
+    }
+    
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+    }
+}
@@ -0,0 +1,140 @@
+package fr.game.board;
+
+// The rules read straight off the board one cell at a time, the way GameBoard did before
+// RuleTables: the walks are the original ones, with the board edge of the rule set as the
+// only bound. Slow, and only here so RuleTablesCheck has something to hold the tables to.
+class ReferenceRules {
+    private static final int WIN_SEQUENCE = 5;
+    // The table only sees this far along a line on each side of the cell
+    private static final int REACH = 4;
+    
+    private final GameBoard board;
+    private final RuleSet rules;
+    
+    ReferenceRules(GameBoard board) {
+        this.board = board;
+        this.rules = board.getRules();
+    }
+    
+    // The colour at this distance from the cell along the direction, 1 for black and 2 for
+    // white, 0 when empty and -1 off the board; the cell itself holds the player's stone
+    private int at(int cell, int dir, int distance, int player) {
+        if (distance == 0) {
+            return player + 1;
+        }
+        GameBoard.Direction direction = GameBoard.Direction.values()[dir];
+        int x = cell % GameBoard.GRID_SIZE + distance * direction.getDx();
+        int y = cell / GameBoard.GRID_SIZE + distance * direction.getDy();
+        if (!rules.contains(x, y)) {
+            return -1;
+        }
+        GameBoard.Stone stone = board.getStone(x, y);
+        return stone == GameBoard.Stone.EMPTY ? 0 : stone == GameBoard.Stone.BLACK ? 1 : 2;
+    }
+    
+    // Own stones in a row next to the cell on one side, sign 1 forward and -1 backward
+    private int run(int cell, int dir, int sign, int player) {
+        int count = 0;
+        while (at(cell, dir, sign * (count + 1), player) == player + 1) {
+            count++;
+        }
+        return count;
+    }
+    
+    // The original isFreeThree: runs of own stones on both sides, stopping at the first gap,
+    // failing on an enemy stone and quietly stopping at the edge
+    boolean isFreeThree(int cell, int dir, int player) {
+        int count = 1;
+        boolean hasSpace = false;
+        for (int sign = 1; sign >= -1; sign -= 2) {
+            for (int distance = 1; count < 4; distance++) {
+                int found = at(cell, dir, sign * distance, player);
+                if (found == -1) {
+                    break;
+                } else if (found == player + 1) {
+                    count++;
+                } else if (found == 0) {
+                    hasSpace = true;
+                    break;
+                } else {
+                    return false;
+                }
+            }
+        }
+        return count == 3 && hasSpace;
+    }
+    
+    // The original checkCaptureInDirection: two enemy stones and then an own one
+    boolean captures(int cell, int dir, int sign, int player) {
+        int enemy = 2 - player;
+        return rules.captures && at(cell, dir, sign, player) == enemy
+            && at(cell, dir, 2 * sign, player) == enemy && at(cell, dir, 3 * sign, player) == player + 1;
+    }
+    
+    // The original countSequence through the cell
+    int sequence(int cell, int dir, int player) {
+        return 1 + run(cell, dir, 1, player) + run(cell, dir, -1, player);
+    }
+    
+    // What the stone makes on this line by the rules, however far the run goes
+    boolean isFive(int cell, int dir, int player) {
+        int count = sequence(cell, dir, player);
+        return rules.exactFive ? count == WIN_SEQUENCE : count >= WIN_SEQUENCE;
+    }
+    
+    // The run as far as the table can see it
+    int visibleSequence(int cell, int dir, int player) {
+        return 1 + Math.min(REACH, run(cell, dir, 1, player)) + Math.min(REACH, run(cell, dir, -1, player));
+    }
+    
+    // Under exact-five rules the table cannot tell a five touching the edge of what it sees
+    // from an overline, so it marks the side where the board has to look one cell further
+    boolean reachesEdge(int cell, int dir, int sign, int player) {
+        return run(cell, dir, sign, player) >= REACH;
+    }
+    
+    // A second own stone on an empty cell within reach would make five through both. Under
+    // exact-five rules the five has to end short of the edge of what the table sees, since
+    // nothing past it is known.
+    boolean makesFour(int cell, int dir, int player) {
+        for (int sign = 1; sign >= -1; sign -= 2) {
+            for (int distance = 1; distance <= REACH; distance++) {
+                int found = at(cell, dir, sign * distance, player);
+                if (found == 0) {
+                    if (fiveWithGap(cell, dir, sign * distance, player)) {
+                        return true;
+                    }
+                    break;
+                }
+                if (found != player + 1) {
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private boolean fiveWithGap(int cell, int dir, int gap, int player) {
+        int low = Math.min(0, gap);
+        int high = Math.max(0, gap);
+        while (low - 1 >= -REACH && stoneOrGap(cell, dir, low - 1, gap, player)) {
+            low--;
+        }
+        while (high + 1 <= REACH && stoneOrGap(cell, dir, high + 1, gap, player)) {
+            high++;
+        }
+        int length = high - low + 1;
+        if (!rules.exactFive) {
+            return length >= WIN_SEQUENCE;
+        }
+        return length == WIN_SEQUENCE && low > -REACH && high < REACH;
+    }
+    
+    private boolean stoneOrGap(int cell, int dir, int distance, int gap, int player) {
+        return distance == gap || at(cell, dir, distance, player) == player + 1;
+    }
+    
+    boolean isOwn(int cell, int dir, int distance, int player) {
+        return at(cell, dir, distance, player) == player + 1;
+    }
+}
@@ -0,0 +1,148 @@
+package fr.game.board;
+
+import java.util.SplittableRandom;
+
+// Holds the RuleTables flags to ReferenceRules on random positions: every empty cell, both
+// colours and all four lines, under every rule set, on the full grid and on a small board.
+// The seed is fixed, so a failure comes back on the next run. Exits with 1 on any mismatch.
+// Run with: make test [ARGS="--positions 500 --seed 1"]
+public class RuleTablesCheck {
+    private static final int MAX_REPORTS = 20;
+    
+    private static final RuleSet[] RULE_SETS = {
+        RuleSet.NINUKI, RuleSet.NO_CAPTURES, RuleSet.STANDARD, RuleSet.FREESTYLE,
+        // The only table the presets leave out
+        new RuleSet("captures-exact", GameBoard.GRID_SIZE, true, false, true),
+        RuleSet.NINUKI.withSize(9), RuleSet.STANDARD.withSize(19), RuleSet.FREESTYLE.withSize(RuleSet.MIN_SIZE)
+    };
+    
+    private final SplittableRandom random;
+    private long checks;
+    private long mismatches;
+    
+    RuleTablesCheck(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+    
+    public static void main(String[] args) {
+        int positions = 300;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--positions":
+                    positions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        
+        RuleTablesCheck check = new RuleTablesCheck(seed);
+        for (RuleSet rules : RULE_SETS) {
+            long before = check.mismatches;
+            for (int i = 0; i < positions; i++) {
+                check.checkPosition(check.randomPosition(rules));
+            }
+            System.out.printf("%-22s %s%n", rules, check.mismatches == before ? "ok" : (check.mismatches - before) + " mismatches");
+        }
+        System.out.println(check.checks + " flag sets checked, " + check.mismatches + " mismatches");
+        if (check.mismatches != 0) {
+            System.exit(1);
+        }
+    }
+    
+    // Stones dropped on a random part of the board, at a random density and with the colours
+    // in random order, so runs, gaps and captures of every kind turn up. Captures and wins
+    // happen as they would in a game; a finished game is as far as a position goes.
+    GameBoard randomPosition(RuleSet rules) {
+        GameBoard board = new GameBoard(rules);
+        int span = Math.min(rules.size, 5 + random.nextInt(rules.size));
+        int left = random.nextInt(rules.size - span + 1);
+        int top = random.nextInt(rules.size - span + 1);
+        int stones = random.nextInt(span * span * 3 / 4 + 1);
+        for (int i = 0; i < stones && board.getState() == GameBoard.GameState.PLAYING; i++) {
+            int x = left + random.nextInt(span);
+            int y = top + random.nextInt(span);
+            if (board.getStone(x, y) != GameBoard.Stone.EMPTY) {
+                continue;
+            }
+            if (random.nextBoolean()) {
+                board.passTurn();
+            }
+            board.makeMove(y * GameBoard.GRID_SIZE + x);
+        }
+        return board;
+    }
+    
+    void checkPosition(GameBoard board) {
+        RuleSet rules = board.getRules();
+        ReferenceRules reference = new ReferenceRules(board);
+        for (int y = 0; y < rules.size; y++) {
+            for (int x = 0; x < rules.size; x++) {
+                if (board.getStone(x, y) != GameBoard.Stone.EMPTY) {
+                    continue;
+                }
+                int cell = y * GameBoard.GRID_SIZE + x;
+                for (int player = 0; player < 2; player++) {
+                    for (int dir = 0; dir < 4; dir++) {
+                        checkFlags(board, reference, cell, dir, player);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void checkFlags(GameBoard board, ReferenceRules reference, int cell, int dir, int player) {
+        RuleSet rules = board.getRules();
+        int found = board.ruleFlags(player, board.windowKey(dir, cell));
+        int visible = reference.visibleSequence(cell, dir, player);
+        boolean five = rules.exactFive ? visible == 5 : visible >= 5;
+        
+        int expected = 0;
+        if (reference.isFreeThree(cell, dir, player)) {
+            expected |= RuleTables.FREE_THREE;
+        }
+        if (reference.captures(cell, dir, 1, player)) {
+            expected |= RuleTables.CAPTURE_FORWARD;
+        }
+        if (reference.captures(cell, dir, -1, player)) {
+            expected |= RuleTables.CAPTURE_BACKWARD;
+        }
+        if (five) {
+            expected |= RuleTables.FIVE;
+            if (rules.exactFive && reference.reachesEdge(cell, dir, 1, player)) {
+                expected |= RuleTables.OVERLINE_FORWARD;
+            }
+            if (rules.exactFive && reference.reachesEdge(cell, dir, -1, player)) {
+                expected |= RuleTables.OVERLINE_BACKWARD;
+            }
+        } else if (visible < 5 && reference.makesFour(cell, dir, player)) {
+            expected |= RuleTables.FOUR;
+        }
+        checks++;
+        if (found != expected) {
+            report(board, cell, dir, player, "flags " + found + ", expected " + expected);
+        }
+        
+        // Past the edge of the window: the overline flags and the cell beyond them have to
+        // give the same answer as counting the whole run
+        boolean tableFive = (found & RuleTables.FIVE) != 0
+            && !((found & RuleTables.OVERLINE_FORWARD) != 0 && reference.isOwn(cell, dir, 5, player))
+            && !((found & RuleTables.OVERLINE_BACKWARD) != 0 && reference.isOwn(cell, dir, -5, player));
+        if (tableFive != reference.isFive(cell, dir, player)) {
+            report(board, cell, dir, player, "five " + tableFive + ", run of " + reference.sequence(cell, dir, player));
+        }
+    }
+    
+    private void report(GameBoard board, int cell, int dir, int player, String problem) {
+        if (mismatches++ < MAX_REPORTS) {
+            System.out.printf("%s: %s at %d,%d along %s for %s after %d moves%n", board.getRules(), problem,
+                cell % GameBoard.GRID_SIZE, cell / GameBoard.GRID_SIZE, GameBoard.Direction.values()[dir],
+                player == 0 ? "black" : "white", board.getMoveCount());
+        }
+    }
+}